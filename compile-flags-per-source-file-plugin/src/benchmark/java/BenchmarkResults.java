@@ -0,0 +1,74 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Results of a benchmark run, written as JSON lines (one line per benchmark and parameters) so runs can be diffed and compared.
+//   A result is identified by its benchmark name and parameters, the score is the mean of the measured samples.
+final class BenchmarkResults {
+    private static final Pattern ID = Pattern.compile("\"benchmark\":\"([^\"]*)\",\"params\":\"([^\"]*)\"");
+    private static final Pattern SCORE = Pattern.compile("\"score\":([-0-9.Ee]+)");
+    private final List<String> lines = new ArrayList<>();
+    private final Map<String, Double> scores = new HashMap<>();
+
+    void add(String benchmark, String params, String unit, List<Double> samples) {
+        final double mean = samples.stream().mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
+        final double variance = samples.stream().mapToDouble(it -> (it - mean) * (it - mean)).sum() / Math.max(1, samples.size() - 1);
+        final double min = samples.stream().mapToDouble(Double::doubleValue).min().orElse(Double.NaN);
+        final String line = "{\"benchmark\":\"" + benchmark + "\",\"params\":\"" + params + "\",\"unit\":\"" + unit + "\""
+                + ",\"score\":" + format(mean) + ",\"error\":" + format(Math.sqrt(variance)) + ",\"min\":" + format(min)
+                + ",\"samples\":[" + samples.stream().map(BenchmarkResults::format).collect(Collectors.joining(",")) + "]}";
+        lines.add(line);
+        scores.put(benchmark + " " + params, mean);
+        System.out.printf(Locale.ROOT, "%-24s %-40s %12.3f +- %.3f %s%n", benchmark, params, mean, Math.sqrt(variance), unit);
+    }
+
+    Double scoreOf(String benchmark, String params) {
+        return scores.get(benchmark + " " + params);
+    }
+
+    void write(File file) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("Results written to " + file);
+    }
+
+    // Prints the relative change of each score against the same benchmark and parameters of a previous run.
+    void compare(File baseline) {
+        final List<String> baselineLines;
+        try {
+            baselineLines = Files.readAllLines(baseline.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("Compared to " + baseline + ":");
+        for (String line : baselineLines) {
+            final Matcher id = ID.matcher(line);
+            final Matcher score = SCORE.matcher(line);
+            if (id.find() && score.find()) {
+                final Double current = scoreOf(id.group(1), id.group(2));
+                if (current != null) {
+                    final double previous = Double.parseDouble(score.group(1));
+                    System.out.printf(Locale.ROOT, "%-24s %-40s %+8.1f%%%n", id.group(1), id.group(2), (current - previous) / previous * 100);
+                }
+            }
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,109 @@
+import org.gradle.testkit.runner.GradleRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+// Configures synthetic components (see SyntheticComponent) of each size and rule mix in a TestKit daemon and records, per build:
+//   - configuration: from the init script to all projects evaluated, i.e. including the extension finalization
+//   - taskGraph: from all projects evaluated to the task graph of `assemble`, i.e. the configuration of the realized compile tasks
+//   - sources: resolving the sources of every compile task of the graph
+//   - heap: the daemon heap after a full GC, with the configured build still alive
+//   - pluginHeap: the heap compared to the same component without the plugin
+// Arguments: <work directory> <results file> <sizes> <warmup builds> <measured builds> [<baseline results file>]
+public final class ConfigurationBenchmark {
+    private static final String MEASURE_SCRIPT = "import java.lang.management.ManagementFactory\n"
+            + "def start = System.nanoTime()\n"
+            + "def configured = 0L\n"
+            + "gradle.projectsEvaluated { configured = System.nanoTime() }\n"
+            + "gradle.taskGraph.whenReady { graph ->\n"
+            + "    def ready = System.nanoTime()\n"
+            + "    int sourceCount = 0\n"
+            + "    // Without the headers of the precompiled header tasks\n"
+            + "    graph.allTasks.each { if (it instanceof org.gradle.language.cpp.tasks.CppCompile) { sourceCount += it.source.files.count { !it.name.endsWith('.h') } } }\n"
+            + "    def resolved = System.nanoTime()\n"
+            + "    2.times { System.gc() }\n"
+            + "    def heap = ManagementFactory.memoryMXBean.heapMemoryUsage.used\n"
+            + "    new File(gradle.startParameter.projectProperties.benchmarkOutput).text = \"\"\"configuration=${(configured - start) / 1e6}\n"
+            + "taskGraph=${(ready - configured) / 1e6}\n"
+            + "sources=${(resolved - ready) / 1e6}\n"
+            + "heap=${heap / (1024 * 1024)}\n"
+            + "sourceCount=${sourceCount}\n"
+            + "\"\"\"\n"
+            + "}\n";
+    private static final List<String> METRICS = Arrays.asList("configuration", "taskGraph", "sources", "heap");
+
+    private ConfigurationBenchmark() {}
+
+    public static void main(String[] args) throws IOException {
+        final File workDirectory = new File(args[0]);
+        final File resultsFile = new File(args[1]);
+        final List<Integer> sizes = Arrays.stream(args[2].split(",")).map(String::trim).map(Integer::parseInt).collect(Collectors.toList());
+        final int warmups = Integer.parseInt(args[3]);
+        final int iterations = Integer.parseInt(args[4]);
+
+        final File measureScript = new File(workDirectory, "measure.gradle");
+        Files.createDirectories(workDirectory.toPath());
+        Files.write(measureScript.toPath(), MEASURE_SCRIPT.getBytes(StandardCharsets.UTF_8));
+
+        final BenchmarkResults results = new BenchmarkResults();
+        for (int size : sizes) {
+            for (String rules : SyntheticComponent.RULES) {
+                final File projectDirectory = SyntheticComponent.generate(new File(workDirectory, "projects"), size, rules);
+                final Map<String, List<Double>> samples = new LinkedHashMap<>();
+                for (int i = 0; i < warmups + iterations; ++i) {
+                    final Properties measurements = configure(workDirectory, projectDirectory, measureScript);
+                    if (Integer.parseInt(measurements.getProperty("sourceCount")) != size) {
+                        throw new IllegalStateException("Expected " + size + " sources to be compiled, got " + measurements.getProperty("sourceCount"));
+                    }
+                    if (i >= warmups) {
+                        for (String metric : METRICS) {
+                            samples.computeIfAbsent(metric, __ -> new ArrayList<>()).add(Double.parseDouble(measurements.getProperty(metric)));
+                        }
+                    }
+                }
+
+                final String params = "size=" + size + ",rules=" + rules;
+                for (String metric : METRICS) {
+                    results.add(metric, params, metric.equals("heap") ? "MB" : "ms", samples.get(metric));
+                }
+                final Double baselineHeap = results.scoreOf("heap", "size=" + size + ",rules=" + SyntheticComponent.BASELINE);
+                if (!rules.equals(SyntheticComponent.BASELINE) && baselineHeap != null) {
+                    results.add("pluginHeap", params, "MB", samples.get("heap").stream().map(it -> it - baselineHeap).collect(Collectors.toList()));
+                }
+            }
+        }
+
+        results.write(resultsFile);
+        if (args.length > 5) {
+            results.compare(new File(args[5]));
+        }
+    }
+
+    private static Properties configure(File workDirectory, File projectDirectory, File measureScript) {
+        final File output = new File(workDirectory, "measurements.properties");
+        GradleRunner.create()
+                .withProjectDir(projectDirectory)
+                .withTestKitDir(new File(workDirectory, "test-kit"))
+                .withPluginClasspath()
+                .withArguments("assemble", "--dry-run", "--no-configuration-cache", "-I", measureScript.getAbsolutePath(), "-PbenchmarkOutput=" + output.getAbsolutePath())
+                .build();
+        final Properties result = new Properties();
+        try (InputStream in = Files.newInputStream(output.toPath())) {
+            result.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,147 @@
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+// JMH microbenchmarks of the bucket classification and flag resolution (see microbenchmarks.Benchmarks), each iteration measures a single operation on a fresh fixture.
+//   - matchSources: the cached spec matching of the synthetic sources, patterns through the trie and closures one by one
+//   - classifySources: the extension finalization and the partition of the sources into buckets
+//   - resolveFlags: the effective flags of every bucket of a finalized extension
+//   - internFlags: interning the flag sets of the buckets, a handful of distinct sets
+// The rules are the `mixed` ones of SyntheticComponent, the sources don't need to exist.
+// Arguments: <results file> <sizes> <warmup iterations> <measured iterations> [<baseline results file>]
+public final class Microbenchmarks implements microbenchmarks.Fixtures {
+    private static final int SPEC_COUNT = 10;
+    private final Project project = ProjectBuilder.builder().build();
+    private final Map<Integer, List<File>> sources = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        final File resultsFile = new File(args[0]);
+        final String[] sizes = Arrays.stream(args[1].split(",")).map(String::trim).toArray(String[]::new);
+        final int warmups = Integer.parseInt(args[2]);
+        final int iterations = Integer.parseInt(args[3]);
+
+        final BenchmarkResults results = new BenchmarkResults();
+        for (RunResult result : new Runner(new OptionsBuilder()
+                .include(microbenchmarks.Benchmarks.class.getName() + "\\.")
+                .param("size", sizes)
+                .warmupIterations(warmups)
+                .measurementIterations(iterations)
+                .build()).run()) {
+            final List<Double> samples = new ArrayList<>();
+            for (BenchmarkResult benchmarkResult : result.getBenchmarkResults()) {
+                for (IterationResult iteration : benchmarkResult.getIterationResults()) {
+                    samples.add(iteration.getPrimaryResult().getScore());
+                }
+            }
+            final String benchmark = result.getParams().getBenchmark();
+            results.add(benchmark.substring(benchmark.lastIndexOf('.') + 1), "size=" + result.getParams().getParam("size"), result.getPrimaryResult().getScoreUnit(), samples);
+        }
+
+        results.write(resultsFile);
+        if (args.length > 4) {
+            results.compare(new File(args[4]));
+        }
+    }
+
+    @Override
+    public Callable<Object> setUp(String benchmark, int size) {
+        final List<File> sources = this.sources.computeIfAbsent(size, this::sourcesOf);
+        switch (benchmark) {
+            case "matchSources":
+                return matchSources(project, sources);
+            case "classifySources":
+                return classifySources(project, sources);
+            case "resolveFlags":
+                return resolveFlags(project, sources);
+            case "internFlags":
+                return internFlags(sources);
+            default:
+                throw new IllegalArgumentException("Unknown benchmark '" + benchmark + "'.");
+        }
+    }
+
+    private List<File> sourcesOf(int size) {
+        final List<File> result = new ArrayList<>();
+        for (int source = 0; source < size; ++source) {
+            result.add(project.file(SyntheticComponent.relativePathOf(source)));
+        }
+        return result;
+    }
+
+    private static Callable<Object> matchSources(Project project, List<File> sources) {
+        final SourceSpecMatcher matcher = new SourceSpecMatcher(project.getProjectDir());
+        for (int d = 0; d < SPEC_COUNT; ++d) {
+            final String suffix = d + ".cpp";
+            matcher.add(it -> it.getName().endsWith(suffix));
+            matcher.add(new SourcePatterns(project.getProjectDir(), Arrays.asList("src/main/cpp/module" + d * 7 + "/")));
+        }
+        return () -> {
+            int result = 0;
+            for (File source : sources) {
+                result += matcher.matchesOf(source).cardinality();
+            }
+            return result;
+        };
+    }
+
+    private static Callable<Object> classifySources(Project project, List<File> sources) {
+        final DefaultCompileFlagsExtension extension = extensionOf(project, sources);
+        return () -> {
+            extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+            return extension.getCppSource().getFiles().size();
+        };
+    }
+
+    private static Callable<Object> resolveFlags(Project project, List<File> sources) {
+        final DefaultCompileFlagsExtension extension = extensionOf(project, sources);
+        extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+        return () -> {
+            int result = 0;
+            for (DefaultCompileFlagsExtension.CompileFlagsBucket bucket : extension.getSourceCompileFlags()) {
+                result += bucket.getCompileFlags().get().size();
+            }
+            return result;
+        };
+    }
+
+    private static Callable<Object> internFlags(List<File> sources) {
+        final FlagSets flagSets = new FlagSets();
+        final List<List<String>> flags = new ArrayList<>();
+        for (int source = 0; source < sources.size(); ++source) {
+            // Equal but distinct strings, as built by the build scripts
+            flags.add(Arrays.asList("-DFILE_" + source % 8, "-DSPEC_" + source % SPEC_COUNT));
+        }
+        return () -> {
+            int result = 0;
+            for (List<String> it : flags) {
+                result += System.identityHashCode(flagSets.intern(it));
+            }
+            return result;
+        };
+    }
+
+    private static DefaultCompileFlagsExtension extensionOf(Project project, List<File> sources) {
+        final DefaultCompileFlagsExtension result = project.getObjects().newInstance(DefaultCompileFlagsExtension.class, project.files(sources), SourceAssignments.of(project.getGradle().getSharedServices()));
+        for (int source = 0; source < sources.size(); source += 10) {
+            result.forSource(sources.get(source)).add("-DFILE_" + source % 8);
+        }
+        for (int d = 0; d < SPEC_COUNT; ++d) {
+            final String suffix = d + ".cpp";
+            result.forSource(it -> it.getName().endsWith(suffix)).add("-DSPEC_" + d);
+            result.forSourceMatching("src/main/cpp/module" + d * 7 + "/").addAll("-DPATTERN", "-DMODULE_" + d);
+        }
+        return result;
+    }
+}
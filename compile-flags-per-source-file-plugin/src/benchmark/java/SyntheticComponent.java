@@ -0,0 +1,85 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+// A generated C++ application of the given number of sources, 100 sources per directory, with one of the rule mixes below.
+//   The rules only use a handful of distinct flags, like real builds, so coalescing and interning have something to share.
+final class SyntheticComponent {
+    static final String BASELINE = "baseline";
+    // baseline: the plugin is not applied, the heap of the other mixes is reported relative to it
+    // files: forSource(File) for every 10th source
+    // specs: 10 forSource(Spec) closures and 10 forSourceMatching patterns
+    // mixed: both, with a precompiled header for some of the files
+    // coalesced: mixed, with coalesceIdenticalFlags
+    static final List<String> RULES = Arrays.asList(BASELINE, "files", "specs", "mixed", "coalesced");
+    private static final int SOURCES_PER_DIRECTORY = 100;
+
+    private SyntheticComponent() {}
+
+    static String relativePathOf(int source) {
+        return "src/main/cpp/module" + source / SOURCES_PER_DIRECTORY + "/source" + source + ".cpp";
+    }
+
+    // Sources are only written once per size, the build script is replaced for each rule mix
+    static File generate(File directory, int size, String rules) {
+        final File result = new File(directory, Integer.toString(size));
+        write(new File(result, "settings.gradle"), "rootProject.name = 'synthetic'\n");
+        write(new File(result, "gradle.properties"), "org.gradle.jvmargs=-Xmx4g\n");
+        write(new File(result, "build.gradle"), buildScriptOf(size, rules));
+        final File marker = new File(result, "src/main/cpp/.generated");
+        if (!marker.exists()) {
+            write(new File(result, "src/main/headers/common.h"), "#pragma once\n");
+            for (int source = 0; source < size; ++source) {
+                write(new File(result, relativePathOf(source)), "int function" + source + "() { return " + source + "; }\n");
+            }
+            write(marker, Integer.toString(size));
+        }
+        return result;
+    }
+
+    private static String buildScriptOf(int size, String rules) {
+        if (rules.equals(BASELINE)) {
+            return "plugins { id 'cpp-application' }\n";
+        }
+        final boolean files = !rules.equals("specs");
+        final boolean specs = !rules.equals("files");
+        final StringBuilder result = new StringBuilder();
+        result.append("plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n");
+        result.append("application {\n");
+        result.append("    compileFlags {\n");
+        if (rules.equals("coalesced")) {
+            result.append("        coalesceIdenticalFlags = true\n");
+        }
+        if (files) {
+            result.append("        for (int i = 0; i < ").append(size).append("; i += 10) {\n");
+            result.append("            def flags = forSource(file(\"src/main/cpp/module${i.intdiv(").append(SOURCES_PER_DIRECTORY).append(")}/source${i}.cpp\")).add(\"-DFILE_${i % 8}\")\n");
+            if (rules.equals("mixed") || rules.equals("coalesced")) {
+                result.append("            if (i % 20 == 0) { flags.precompiledHeader(file('src/main/headers/common.h')) }\n");
+            }
+            result.append("        }\n");
+        }
+        if (specs) {
+            result.append("        for (int d = 0; d < 10; ++d) {\n");
+            result.append("            def suffix = \"${d}.cpp\"\n");
+            result.append("            forSource { it.name.endsWith(suffix) }.add(\"-DSPEC_${d}\")\n");
+            result.append("            forSourceMatching(\"src/main/cpp/module${d * 7}/\").addAll('-DPATTERN', \"-DMODULE_${d}\")\n");
+            result.append("        }\n");
+        }
+        result.append("    }\n");
+        result.append("}\n");
+        return result.toString();
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package microbenchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+// Each iteration measures a single operation on a fresh fixture, see Microbenchmarks.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+// Opened like for the test workers, ProjectBuilder defines classes in the Gradle class loaders
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-opens=java.base/java.lang=ALL-UNNAMED"})
+public class Benchmarks {
+    @State(Scope.Benchmark)
+    public static class Operation {
+        @Param({"1000", "10000", "50000"})
+        public int size;
+        private Fixtures fixtures;
+        private Callable<Object> operation;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() throws ReflectiveOperationException {
+            fixtures = Fixtures.create();
+        }
+
+        @Setup(Level.Iteration)
+        public void setUpIteration(BenchmarkParams params) throws Exception {
+            operation = fixtures.setUp(params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1), size);
+        }
+    }
+
+    @Benchmark
+    public Object matchSources(Operation operation) throws Exception {
+        return operation.operation.call();
+    }
+
+    @Benchmark
+    public Object classifySources(Operation operation) throws Exception {
+        return operation.operation.call();
+    }
+
+    @Benchmark
+    public Object resolveFlags(Operation operation) throws Exception {
+        return operation.operation.call();
+    }
+
+    @Benchmark
+    public Object internFlags(Operation operation) throws Exception {
+        return operation.operation.call();
+    }
+}
@@ -0,0 +1,14 @@
+package microbenchmarks;
+
+import java.util.concurrent.Callable;
+
+// The fixtures of the microbenchmarks, implemented by Microbenchmarks next to the plugin classes.
+//   JMH doesn't generate benchmarks of classes in the default package, and classes in the default package can't be imported, hence the interface.
+public interface Fixtures {
+    // The fixture of a single iteration of the given benchmark, only the returned operation is measured
+    Callable<Object> setUp(String benchmark, int size) throws Exception;
+
+    static Fixtures create() throws ReflectiveOperationException {
+        return (Fixtures) Class.forName("Microbenchmarks").getDeclaredConstructor().newInstance();
+    }
+}
@@ -1,5 +1,9 @@
+import org.gradle.api.Action;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Exec;
 import org.gradle.nativeplatform.platform.NativePlatform;
 import org.gradle.nativeplatform.toolchain.NativeToolChain;
 
@@ -9,6 +13,63 @@ public interface CompileFlagsExtension {
     CompileFlags forSource(Spec<? super File> filterAction);
     CompileFlags forSource(File file);
 
+    // Ant-style patterns relative to the project directory, e.g. `src/main/cpp/legacy/` (trailing slash for a whole directory) or `**/*_generated.cpp`.
+    //   All pattern rules are matched at once per file by a combined matcher, as opposed to forSource(Spec) which is evaluated for each file.
+    CompileFlags forSourceMatching(String... patterns);
+
+    // When enabled, files with identical effective flags (see forSource(File) and forSource(Spec)) share a single compile task.
+    Property<Boolean> getCoalesceIdenticalFlags();
+
+    // When enabled, binaries of the component compiling the same way (tool chain, target platform, includes, macros and flags of the main compile task) share the additional compile tasks of the first one.
+    //   Decided once the binaries are finalized, the compile tasks of the other binaries are shared tasks, see CompileTasks#configureEach(Action).
+    //   Each binary still compiles the sources left to its main compile task: without getDefaultBucketHashShards() only the sources of forSource(File) and forSource(Spec) are shared,
+    //   so sharing only pays off along with shards, which move all but the first shard of the other sources to shared tasks.
+    //   The binaries are compared while configuring, which realizes their main compile task and resolves its include directories, hence disabled by default.
+    Property<Boolean> getShareIdenticalCompilations();
+
+    // When set (2 or more), the sources of the main compile task and of forSource(Spec) are compiled as unity (jumbo) batches.
+    //   Files with their own flags, see forSource(File), are never batched.
+    Property<Integer> getUnityBatchSize();
+
+    void excludeFromUnity(Spec<? super File> spec);
+    void excludeFromUnity(String... patterns);
+
+    // When set (2 or more), the sources left to the main compile task are split into as many compile tasks by hash of their relative path.
+    //   A file only moves to another shard when the shard count changes, at the cost of balance: the shards hold about as many files, not as much compile time.
+    //   See getScheduleLongestFirst() to start the longest shards first.
+    Property<Integer> getDefaultBucketHashShards();
+
+    // When enabled, compile tasks are started longest first, based on the durations recorded by previous builds.
+    Property<Boolean> getScheduleLongestFirst();
+
+    // When enabled, the cost of each translation unit is recorded and reported per binary, see report<Binary>CompileTimes.
+    Property<Boolean> getInstrumentCompilation();
+
+    // When set (e.g. `ccache` or `sccache`), the C++ compiler of the project's GCC-compatible tool chains runs through this compiler cache launcher.
+    //   The tool chains are shared by all components of the project, the first component declaring a launcher configures it.
+    Property<String> getCompilerLauncher();
+
+    // Local cache directory of the launcher, `.gradle/compiler-cache` of the project by default.
+    DirectoryProperty getCompilerCacheDirectory();
+
+    // When set, in megabytes, the compilers of the build only run while their estimated memory fits in this budget, the others wait for a compiler to finish.
+    //   Shared by all projects of the build declaring one, the first component declaring a budget sets it.
+    //   Only the GCC-compatible tool chains on non-Windows hosts are limited, the budget is taken by a shell script. Visual C++ and Windows builds are not limited.
+    //   The waiting compilers hold their Gradle worker, so a budget much lower than --max-workers compilers leaves workers idle.
+    Property<Long> getCompileMemoryBudget();
+
+    // Estimated peak RSS of a compiler in megabytes, 1024 by default, e.g. the peak memory reported by instrumentCompilation.
+    //   The budget is split into slots of this size, see CompileFlags#compilerMemoryEstimate(long) for the sources whose compilers need more.
+    Property<Long> getCompilerMemoryEstimate();
+
+    // Configures train<Binary>Profile, running the executable instrumented for the sources marked with CompileFlags#optimizeWithProfile().
+    //   The profile merged from the training run is an input of the marked sources, they are only recompiled when the profile changes.
+    void trainProfile(Action<? super Exec> action);
+
+    // When set, the marked sources use this profile instead of training one, e.g. a checked-in profile.
+    //   The directory contains the .gcda files of GCC under the object paths relative to the build directory (see merge<Binary>Profile), or the default.profdata of Clang.
+    DirectoryProperty getProfile();
+
     interface CompileInformation {
         Provider<NativeToolChain> getToolChain();
         Provider<NativePlatform> getTargetPlatform();
@@ -24,5 +85,18 @@ public interface CompileFlagsExtension {
         CompileFlags addAll(Iterable<? extends String> items);
 
         CompileFlags addAll(Provider<? extends Iterable<? extends String>> items);
+
+        // Header precompiled once per distinct flag set and force-included in the matching sources
+        CompileFlags precompiledHeader(File header);
+
+        // Compiled with the profile of the binary's training run, see CompileFlagsExtension#trainProfile(Action).
+        CompileFlags optimizeWithProfile();
+
+        // Compiled for link time optimization (ThinLTO with Clang), the binary is then linked with link time optimization.
+        CompileFlags linkTimeOptimization();
+
+        // Estimated peak RSS of the compilers of these sources in megabytes, e.g. for `-O3 -flto`, see CompileFlagsExtension#getCompileMemoryBudget().
+        //   A compiler takes as many slots of the budget as the estimate covers, the largest estimate applies to a source matching several declarations.
+        CompileFlags compilerMemoryEstimate(long megabytes);
     }
 }
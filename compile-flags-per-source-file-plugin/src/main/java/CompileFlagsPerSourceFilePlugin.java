@@ -2,138 +2,1300 @@ import org.gradle.api.Action;
 import org.gradle.api.DomainObjectSet;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.Transformer;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.plugins.ExtensionAware;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import org.gradle.api.services.BuildServiceRegistry;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.specs.Specs;
+import org.gradle.api.tasks.Exec;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.util.PatternFilterable;
+import org.gradle.build.event.BuildEventsListenerRegistry;
 import org.gradle.language.cpp.CppBinary;
 import org.gradle.language.cpp.CppComponent;
+import org.gradle.language.cpp.plugins.CppBasePlugin;
 import org.gradle.language.cpp.tasks.CppCompile;
+import org.gradle.language.nativeplatform.ComponentWithExecutable;
 import org.gradle.language.nativeplatform.tasks.AbstractNativeCompileTask;
 import org.gradle.nativeplatform.platform.NativePlatform;
 import org.gradle.nativeplatform.tasks.AbstractLinkTask;
+import org.gradle.nativeplatform.tasks.LinkExecutable;
+import org.gradle.nativeplatform.toolchain.Clang;
+import org.gradle.nativeplatform.toolchain.GccCompatibleToolChain;
+import org.gradle.nativeplatform.toolchain.NativeToolChainRegistry;
 import org.gradle.nativeplatform.toolchain.NativeToolChain;
 import org.gradle.nativeplatform.toolchain.VisualCpp;
 
 import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public /*final*/ abstract class CompileFlagsPerSourceFilePlugin implements Plugin<Project> {
+    private static final Logger LOGGER = Logging.getLogger(CompileFlagsPerSourceFilePlugin.class);
+
+    @Inject
+    protected abstract ObjectFactory getObjects();
+
+    @Inject
+    protected abstract ProviderFactory getProviders();
+
+    @Inject
+    protected abstract ProjectLayout getLayout();
+
+    @Inject
+    protected abstract BuildEventsListenerRegistry getBuildEventsListenerRegistry();
+
     @Override
     public void apply(Project project) {
+        // Only capture services (never the project) in the task configurations to stay configuration cache compatible.
+        final ObjectFactory objects = getObjects();
+        final ProviderFactory providers = getProviders();
+        final ProjectLayout layout = getLayout();
+        final TaskContainer tasks = project.getTasks();
+        final BuildServiceRegistry sharedServices = project.getGradle().getSharedServices();
+
+        // The launcher replaces the compiler of the project's tool chains, hence is shared by all components
+        final CompilerLauncher compilerLauncher = new CompilerLauncher(layout.getBuildDirectory().dir("compiler-launcher"), project.getRootDir(), sharedServices, layout.getBuildDirectory().dir("compiler-memory-budget"));
+        project.getPlugins().withType(CppBasePlugin.class, __ -> {
+            project.getExtensions().getByType(NativeToolChainRegistry.class).withType(GccCompatibleToolChain.class).configureEach(toolChain -> {
+                toolChain.eachPlatform(compilerLauncher.forToolChain(toolChain));
+            });
+        });
+
         project.getComponents().withType(CppComponent.class).configureEach(new Action<>() {
+            private final Map<String, TaskProvider<GenerateUnitySources>> unityTasks = new HashMap<>();
+            private TaskProvider<GenerateCompileTimeWrapper> compileTimeWrapperTask = null;
+            private TaskProvider<GenerateCompilerLaunchers> compilerLaunchersTask = null;
+            private Provider<CompilerMemoryBudget> compilerMemoryBudget = null;
+            // The compiler memory estimate of the bucket tasks declaring one, by task name, see CompileFlags#compilerMemoryEstimate(long)
+            private final Map<String, Long> compilerMemoryEstimates = new HashMap<>();
+            private final Map<List<String>, SharedCompilation> sharedCompilations = new HashMap<>();
+            // The sources of the compile tasks compiling unity sources, by task name, see unitySource
+            private final Map<String, FileCollection> translationUnitSources = new HashMap<>();
+
             private FileCollection cppSource(CppComponent component) {
-                return project.getObjects().fileCollection().from((Callable<?>) () -> cppSourceOf(component));
+                return objects.fileCollection().from((Callable<?>) () -> cppSourceOf(component));
+            }
+
+            // Unity sources are shared by all binaries of the component, only the excluded files are compiled as-is.
+            private FileCollection unitySource(CppComponent component, DefaultCompileFlagsExtension extension, TaskProvider<CppCompile> compileTask, String bucketName, FileCollection sources) {
+                if (!extension.isUnityEnabled()) {
+                    return sources;
+                }
+                translationUnitSources.put(compileTask.getName(), sources);
+
+                final TaskProvider<GenerateUnitySources> generateTask = unityTasks.computeIfAbsent(generateUnityTaskName(component, bucketName), taskName -> tasks.register(taskName, GenerateUnitySources.class, task -> {
+                    task.getSources().from(sources.filter(Specs.negate(extension.getUnityExclusions())));
+                    task.getBatchSize().value(extension.getUnityBatchSize()).disallowChanges();
+                    task.getOutputDirectory().value(layout.getBuildDirectory().dir("generated/unity/" + task.getName())).disallowChanges();
+                }));
+                return objects.fileCollection()
+                        .from(sources.filter(extension.getUnityExclusions()))
+                        .from(generateTask.flatMap(GenerateUnitySources::getOutputDirectory).map(Directory::getAsFileTree));
+            }
+
+            // The wrapper is shared by all components of the project
+            private TaskProvider<GenerateCompileTimeWrapper> compileTimeWrapperTask() {
+                if (compileTimeWrapperTask == null) {
+                    compileTimeWrapperTask = tasks.register("generateCompileTimeWrapper", GenerateCompileTimeWrapper.class, task -> {
+                        task.getOutputFile().fileValue(compileTimeWrapper()).disallowChanges();
+                    });
+                }
+                return compileTimeWrapperTask;
+            }
+
+            private File compileTimeWrapper() {
+                return layout.getBuildDirectory().file("compile-times/" + GenerateCompileTimeWrapper.SCRIPT_NAME).get().getAsFile();
+            }
+
+            // Every compile task of the project uses the tool chains, including the precompiled header and the other components' tasks
+            private void useCompilerLauncher() {
+                if (compilerLaunchersTask == null) {
+                    compilerLaunchersTask = tasks.register("generateCompilerLaunchers", GenerateCompilerLaunchers.class, task -> {
+                        task.getScripts().value(providers.provider(compilerLauncher::getScripts)).disallowChanges();
+                        task.getOutputDirectory().value(compilerLauncher.getDirectory()).disallowChanges();
+                    });
+                    final TaskProvider<GenerateCompilerLaunchers> generateTask = compilerLaunchersTask;
+                    tasks.withType(CppCompile.class).configureEach(task -> task.dependsOn(generateTask));
+                }
+            }
+
+            // The compilers of every compile task of the project take a slot of the budget through the launcher scripts, see CompilerMemoryBudget.
+            //   The tasks create the budget before running their compilers, which clears the slots left by a previous build.
+            //   The bucket tasks are registered before being configured, their compiler memory estimate is known by then.
+            private void useCompilerMemoryBudget() {
+                if (compilerMemoryBudget == null) {
+                    compilerMemoryBudget = compilerLauncher.getBudget();
+                    final Provider<CompilerMemoryBudget> budget = compilerMemoryBudget;
+                    tasks.withType(CppCompile.class).configureEach(task -> {
+                        task.usesService(budget);
+                        task.doFirst(new UseCompilerMemoryBudget(budget, compilerMemoryEstimates.getOrDefault(task.getName(), 0L), false));
+                        task.doLast(new UseCompilerMemoryBudget(budget, 0L, true));
+                    });
+                }
+            }
+
+            private void reportCompilerCacheStatistics(TaskProvider<CppCompile> compileTask) {
+                compileTask.configure(task -> {
+                    task.doFirst(new ReportCompilerCacheStatistics(false));
+                    task.doLast(new ReportCompilerCacheStatistics(true));
+                });
+            }
+
+            // GCC-compatible compilers run the compiler proper through the wrapper script, Clang traces itself, Visual C++ is only timed per task.
+            private void instrument(TaskProvider<CppCompile> compileTask) {
+                final TaskProvider<GenerateCompileTimeWrapper> wrapperTask = compileTimeWrapperTask();
+                final File wrapper = compileTimeWrapper();
+                final File measurements = compileTimesDirectoryOf(compileTask);
+                compileTask.configure(task -> {
+                    // Location only, the object directory is an output of the very same task
+                    task.getCompilerArgs().addAll(task.getToolChain().zip(task.getObjectFileDir().getLocationOnly(), (toolChain, objectFileDir) -> instrumentationFlagsOf(toolChain, objectFileDir.getAsFile(), wrapper, measurements)));
+                    task.getInputs().files(wrapperTask)
+                            .withPropertyName("compileTimeWrapper")
+                            .withPathSensitivity(PathSensitivity.RELATIVE);
+                    task.getOutputs().dir(measurements).withPropertyName("compileTimes");
+                    final RecordCompileTaskTime.StartTime startTime = new RecordCompileTaskTime.StartTime();
+                    task.doFirst(startTime);
+                    task.doLast(new RecordCompileTaskTime(startTime, new File(measurements, ReportCompileTimes.TASK_WALL_TIME_FILE_NAME)));
+                });
+            }
+
+            private ReportCompileTimes.CompileTaskTimes compileTimesEntry(DefaultCompileFlagsExtension extension, TaskProvider<CppCompile> compileTask) {
+                final ReportCompileTimes.CompileTaskTimes result = objects.newInstance(ReportCompileTimes.CompileTaskTimes.class);
+                result.getName().value(compileTask.getName()).disallowChanges();
+                // The same flags as the compilation database, the tasks compiled with the same flags share their flag set
+                addEffectiveCompilerArgs(result.getCompilerArgs(), extension, compileTask);
+                result.getSourcePaths().value(compileTask.flatMap(elementsOf(CppCompile::getSource)).map(CompileFlagsPerSourceFilePlugin::absolutePaths)).disallowChanges();
+                result.getMeasurements().from(objects.fileTree().from(compileTimesDirectoryOf(compileTask)).builtBy(compileTask)).disallowChanges();
+                result.getTraces().from(compileTask.map(it -> it.getObjectFileDir().getAsFileTree().matching(traceFiles()))).disallowChanges();
+                return result;
+            }
+
+            private File compileTimesDirectoryOf(TaskProvider<CppCompile> compileTask) {
+                return layout.getBuildDirectory().dir("compile-times/" + compileTask.getName()).get().getAsFile();
+            }
+
+            private GenerateCompilationDatabase.CompileTaskEntry compilationDatabaseEntry(DefaultCompileFlagsExtension extension, TaskProvider<CppCompile> compileTask) {
+                final GenerateCompilationDatabase.CompileTaskEntry result = objects.newInstance(GenerateCompilationDatabase.CompileTaskEntry.class);
+                result.getName().value(compileTask.getName()).disallowChanges();
+                // The compiler working directory, the precompiled header and profile paths of the compiler args are relative to it.
+                //   Location only, the database does not depend on compiling.
+                result.getDirectory().value(compileTask.flatMap(it -> it.getObjectFileDir().getLocationOnly()).map(it -> it.getAsFile().getAbsolutePath())).disallowChanges();
+                result.getCompiler().value(compileTask.flatMap(CppCompile::getToolChain).map(CompileFlagsPerSourceFilePlugin::compilerOf)).disallowChanges();
+                result.getVisualCpp().value(compileTask.flatMap(CppCompile::getToolChain).map(VisualCpp.class::isInstance)).disallowChanges();
+                addEffectiveCompilerArgs(result.getCompilerArgs(), extension, compileTask);
+                result.getIncludePaths().value(compileTask.flatMap(elementsOf(CppCompile::getIncludes)).map(CompileFlagsPerSourceFilePlugin::absolutePaths)).disallowChanges();
+                result.getSystemIncludePaths().value(compileTask.flatMap(elementsOf(CppCompile::getSystemIncludes)).map(CompileFlagsPerSourceFilePlugin::absolutePaths)).disallowChanges();
+                // Unity sources are left out, the sources they include are listed instead with the flags of the very same task
+                final Map<String, FileCollection> translationUnitSources = this.translationUnitSources;
+                final Provider<Set<FileSystemLocation>> sources = providers.provider(() -> translationUnitSources.get(compileTask.getName()))
+                        .flatMap(FileCollection::getElements)
+                        .orElse(compileTask.flatMap(elementsOf(CppCompile::getSource)));
+                result.getSourcePaths().value(sources.map(CompileFlagsPerSourceFilePlugin::absolutePaths).map(CompileFlagsPerSourceFilePlugin::sorted)).disallowChanges();
+                return result;
+            }
+
+            private void addEffectiveCompilerArgs(ListProperty<String> compilerArgs, DefaultCompileFlagsExtension extension, TaskProvider<CppCompile> compileTask) {
+                compilerArgs.addAll(compileTask.flatMap(CppCompile::getCompilerArgs).map(withoutInstrumentationFlags(extension)));
+                // Macros and debug/optimize/PIC settings of the main compile task are not part of its compiler args
+                compilerArgs.addAll(compileTask.flatMap(it -> providers.provider(() -> implicitFlagsOf(it))));
+                compilerArgs.addAll(compileTask.flatMap(CppCompile::getToolChain).zip(compileTask.flatMap(it -> providers.provider(it::getMacros)), CompileFlagsPerSourceFilePlugin::toMacroFlags));
+                compilerArgs.disallowChanges();
+            }
+
+            private File buildDirectory() {
+                return layout.getBuildDirectory().get().getAsFile();
+            }
+
+            private File objectFileDirOf(Task task) {
+                return objectFileDirOf(task.getName());
+            }
+
+            private File objectFileDirOf(String taskName) {
+                return layout.getBuildDirectory().dir("tmp/" + taskName).get().getAsFile();
+            }
+
+            private Action<CppCompile> copyFrom(DefaultCompileFlagsExtension extension, Provider<CppCompile> compileTask) {
+                return task -> {
+                    // The main compile task is instrumented on its own, see instrument(TaskProvider)
+                    task.getCompilerArgs().addAll(compileTask.flatMap(CppCompile::getCompilerArgs).map(withoutInstrumentationFlags(extension)));
+                    // Do not lock as we allow additional flags
+
+                    // Not Gradle properties, the core plugins set them when the binary is realized, i.e. before the main compile task is configured.
+                    task.setDebuggable(compileTask.get().isDebuggable());
+                    task.setOptimized(compileTask.get().isOptimized());
+                    task.setPositionIndependentCode(compileTask.get().isPositionIndependentCode());
+
+                    task.getIncludes()
+                            .from(compileTask.flatMap(elementsOf(CppCompile::getIncludes)))
+                            .disallowChanges();
+                    task.getToolChain()
+                            .value(compileTask.flatMap(CppCompile::getToolChain))
+                            .disallowChanges();
+                    // Add macros as flag because CppCompile#macros is not a Gradle property.
+                    task.getCompilerArgs().addAll(task.getToolChain().zip(compileTask.flatMap(it -> providers.provider(it::getMacros)), CompileFlagsPerSourceFilePlugin::toMacroFlags));
+                    task.getSystemIncludes()
+                            .from(compileTask.flatMap(elementsOf(CppCompile::getSystemIncludes)))
+                            .disallowChanges();
+                    task.getTargetPlatform()
+                            .value(compileTask.flatMap(CppCompile::getTargetPlatform))
+                            .disallowChanges();
+                };
+            }
+
+            // The compile task lists its objects in a manifest, the link task reads the manifest instead of walking the object directory.
+            //   The manifest is derived from the object directory, so the configuration cache defers reading it until the compile task ran.
+            private Provider<List<File>> objectFilesOf(TaskProvider<CppCompile> compileTask) {
+                compileTask.configure(task -> {
+                    final FileSystemStartTime startTime = new FileSystemStartTime();
+                    task.getOutputs().upToDateWhen(new WriteObjectManifest.ListsEveryObjectFile());
+                    task.doFirst(startTime);
+                    task.doLast(new WriteObjectManifest(startTime));
+                });
+                // Mapped from the output property itself, a provider mapped from a location derived from it is read when the configuration cache entry is stored
+                return compileTask.flatMap(CppCompile::getObjectFileDir).map(it -> WriteObjectManifest.objectFilesOf(it.file(WriteObjectManifest.FILE_NAME)));
+            }
+
+            private void linkObjectFiles(CppBinary binary, Provider<List<File>> objectFiles) {
+                tasks.named(linkTaskName(binary), AbstractLinkTask.class, task -> task.source(objectFiles));
+            }
+
+            private void linkWithLinkTimeOptimization(CppBinary binary) {
+                tasks.named(linkTaskName(binary), AbstractLinkTask.class, task -> {
+                    task.getLinkerArgs().addAll(task.getToolChain().map(CompileFlagsPerSourceFilePlugin::linkTimeOptimizationLinkerFlagsOf));
+                });
+            }
+
+            // Part of the task outputs, hence restored from the build cache along with the objects
+            private void recordDuration(TaskProvider<CppCompile> compileTask) {
+                final File duration = compileDurationOf(compileTask).getAsFile();
+                compileTask.configure(task -> {
+                    task.getOutputs().file(duration).withPropertyName("compileDuration");
+                    final RecordCompileTaskTime.StartTime startTime = new RecordCompileTaskTime.StartTime();
+                    final FileSystemStartTime fileSystemStartTime = new FileSystemStartTime();
+                    task.doFirst(startTime);
+                    task.doFirst(fileSystemStartTime);
+                    task.doLast(new RecordCompileDuration(startTime, fileSystemStartTime, duration));
+                });
+            }
+
+            private RegularFile compileDurationOf(TaskProvider<CppCompile> compileTask) {
+                return compileDurationsDirectory().file(compileTask.getName() + ".ms");
+            }
+
+            private Directory compileDurationsDirectory() {
+                return layout.getBuildDirectory().dir("compile-durations").get();
+            }
+
+            // Chains the compile tasks with shouldRunAfter, which Gradle only uses to prioritize tasks that are ready to run.
+            //   The order is part of the task graph, i.e. of the configuration cache entry, only the order is read (see LongestFirst)
+            //   so the entry is reused as long as the recorded durations don't reorder the tasks.
+            private void scheduleLongestFirst(List<TaskProvider<CppCompile>> compileTasks) {
+                final Map<String, TaskProvider<CppCompile>> compileTasksByName = new HashMap<>();
+                for (TaskProvider<CppCompile> compileTask : compileTasks) {
+                    compileTasksByName.put(compileTask.getName(), compileTask);
+                }
+                final List<String> ordered = providers.of(LongestFirst.class, spec -> {
+                    spec.getParameters().getDurationsDirectory().set(compileDurationsDirectory());
+                    spec.getParameters().getTaskNames().set(compileTasksByName.keySet());
+                }).get();
+                for (int i = 1; i < ordered.size(); ++i) {
+                    final TaskProvider<CppCompile> previous = compileTasksByName.get(ordered.get(i - 1));
+                    compileTasksByName.get(ordered.get(i)).configure(task -> task.shouldRunAfter(previous));
+                }
             }
 
             @Override
             public void execute(CppComponent component) {
                 // We support shadowing the `CppComponent#cppSource` property to fix the core patterns.
                 //   The core plugins filters the default location for: *.cpp, *.c++, *.cc
-                final DefaultCompileFlagsExtension extension = ((ExtensionAware) component).getExtensions().create("compileFlags", DefaultCompileFlagsExtension.class, cppSource(component));
-
-                project.afterEvaluate(__ -> extension.finalizeExtension());
+                final DefaultCompileFlagsExtension extension = ((ExtensionAware) component).getExtensions().create("compileFlags", DefaultCompileFlagsExtension.class, cppSource(component), SourceAssignments.of(sharedServices, getBuildEventsListenerRegistry()));
+                compilerLauncher.add(extension);
 
                 component.getBinaries().configureEach(binary -> {
-                    final DefaultCompileTasks compileTasks = ((ExtensionAware) binary).getExtensions().create("compileTasks", DefaultCompileTasks.class);
-                    final TaskProvider<CppCompile> compileTask = project.getTasks().named(compileTaskName(binary), CppCompile.class);
-                    compileTasks.add(compileTask);
-                    compileTask.configure(task -> {
-                        task.getSource().setFrom(extension.getCppSource()); // Overwrite default sources
-
-                        // users should configure c++ sources using CppComponent#getSource().from(...)
-                        task.getSource().disallowChanges();
+                    // Binaries are only known once the build script was evaluated, hence it's safe to finalize the buckets.
+                    extension.finalizeExtension(compileInformationOf(binary.getCompileTask()));
+
+                    ((ExtensionAware) binary).getExtensions().create("compileTasks", DefaultCompileTasks.class);
+                    if (!extension.getShareIdenticalCompilations().get()) {
+                        addCompileTasks(component, extension, binary);
+                    }
+                });
+                // Identical compilations are only known once the build script configured the binaries, i.e. their main compile task
+                component.getBinaries().whenElementFinalized(binary -> {
+                    if (extension.getShareIdenticalCompilations().get()) {
+                        addCompileTasks(component, extension, binary);
+                    }
+                });
+            }
+
+            private void addCompileTasks(CppComponent component, DefaultCompileFlagsExtension extension, CppBinary binary) {
+                final DefaultCompileTasks compileTasks = ((ExtensionAware) binary).getExtensions().getByType(DefaultCompileTasks.class);
+                final List<TaskProvider<CppCompile>> scheduledTasks = new ArrayList<>();
+                if (extension.getScheduleLongestFirst().get()) {
+                    compileTasks.whenOwnTaskAdded(this::recordDuration);
+                    compileTasks.whenOwnTaskAdded(scheduledTasks::add);
+                }
+                final TaskProvider<CppCompile> compileTask = tasks.named(compileTaskName(binary), CppCompile.class);
+                compileTasks.add(compileTask);
+                // Objects of the executable instrumented for profile guided optimization, see trainProfile(Action).
+                //   Added one by one to the link task, as opposed to an intermediate file collection, so the configuration cache still defers reading the manifests.
+                final List<Object> instrumentedObjects = new ArrayList<>();
+                instrumentedObjects.add(binary.getObjects());
+                final FileCollection cppSource = unitySource(component, extension, compileTask, "", extension.getCppSource(0));
+
+                tasks.register(generateCompilationDatabaseTaskName(binary), GenerateCompilationDatabase.class, task -> {
+                    task.setGroup("IDE");
+                    task.setDescription("Generates the compilation database (compile_commands.json) of " + binary + ".");
+                    compileTasks.whenTaskAdded(it -> task.getCompileTasks().add(compilationDatabaseEntry(extension, it)));
+                    task.getFragmentsDirectory().value(layout.getBuildDirectory().dir("tmp/" + task.getName())).disallowChanges();
+                    task.getOutputFile().value(layout.getBuildDirectory().file("compile-commands/" + qualifyingName(binary) + "/compile_commands.json")).disallowChanges();
+                });
+                if (extension.getCompileMemoryBudget().isPresent()) {
+                    useCompilerMemoryBudget();
+                    useCompilerLauncher();
+                }
+                if (compilerLauncher.getSettings() != null) {
+                    useCompilerLauncher();
+                    compileTasks.whenOwnTaskAdded(this::reportCompilerCacheStatistics);
+                }
+                if (extension.getInstrumentCompilation().get()) {
+                    // Registered before any bucket task is added so the instrumentation flags are added before the flags are locked
+                    compileTasks.whenOwnTaskAdded(this::instrument);
+                    tasks.register(reportCompileTimesTaskName(binary), ReportCompileTimes.class, task -> {
+                        task.setDescription("Reports the compile time of each translation unit of " + binary + ".");
+                        compileTasks.whenTaskAdded(it -> task.getCompileTasks().add(compileTimesEntry(extension, it)));
+                        task.getOutputFile().value(layout.getBuildDirectory().file("reports/compile-times/" + qualifyingName(binary) + "/compile-times.json")).disallowChanges();
                     });
-                    extension.getSourceCompileFlags().all(new Action<>() {
-                        @Override
-                        public void execute(DefaultCompileFlagsExtension.CompileFlagsBucket entry) {
-                            final TaskProvider<CppCompile> sourceCompileTask = project.getTasks().register(compileTaskName(binary, entry.getName()), CppCompile.class);
-                            compileTasks.add(sourceCompileTask);
-                            entry.getCompilationInformation().set(new CompileFlagsExtension.CompileInformation() {
-                                @Override
-                                public Provider<NativeToolChain> getToolChain() {
-                                    return sourceCompileTask.flatMap(AbstractNativeCompileTask::getToolChain);
-                                }
+                }
+                compileTask.configure(task -> {
+                    task.getSource().setFrom(cppSource); // Overwrite default sources
 
-                                @Override
-                                public Provider<NativePlatform> getTargetPlatform() {
-                                    return sourceCompileTask.flatMap(AbstractNativeCompileTask::getTargetPlatform);
-                                }
-                            });
+                    // users should configure c++ sources using CppComponent#getSource().from(...)
+                    task.getSource().disallowChanges();
+                });
 
-                            sourceCompileTask.configure(copyFrom(compileTask));
-                            sourceCompileTask.configure(task -> {
-                                task.getCompilerArgs().addAll(entry.getAdditionalCompileFlags().toProvider());
-                                task.getCompilerArgs().disallowChanges();
-                                task.getSource().from(entry.getCppSource()).disallowChanges();
+                // The binaries compiling like a previous binary of the component link its objects instead of compiling the same sources again.
+                //   Only the main compile task is left to each binary, its objects are the binary's objects as far as the core plugins are concerned.
+                //   I.e. the core link, install and compilation database wiring expect the binary's own compile task, the default bucket is compiled by each binary.
+                // Only realizes the main compile task (and resolves its includes) when sharing, the key decides which tasks are registered
+                final List<String> compilationKey = extension.getShareIdenticalCompilations().get() ? compilationKeyOf(component, extension, compileTask.get()) : null;
+                final SharedCompilation sharedCompilation = compilationKey == null ? null : sharedCompilations.get(compilationKey);
+                if (sharedCompilation != null) {
+                    LOGGER.info("Binary '{}' links the objects of binary '{}', both compile the same way.", binary.getName(), sharedCompilation.binary);
+                    sharedCompilation.compileTasks.forEach(compileTasks::addShared);
+                    sharedCompilation.objectFiles.forEach(it -> linkObjectFiles(binary, it));
+                    if (sharedCompilation.linkTimeOptimized) {
+                        linkWithLinkTimeOptimization(binary);
+                    }
+                    return;
+                }
+                final SharedCompilation compilation = new SharedCompilation(binary.getName());
+                if (compilationKey != null) {
+                    sharedCompilations.put(compilationKey, compilation);
+                }
 
-                                // We use the temporary directory to ensure the output directories are different
-                                task.getObjectFileDir()
-                                        .value(project.getLayout().getBuildDirectory().dir("tmp/" + task.getName()))
-                                        .disallowChanges();
+                // The main compile task keeps the first shard, each other shard is compiled like the main compile task.
+                for (int shard = 1; shard < extension.getDefaultBucketHashShardCount(); ++shard) {
+                    final String shardName = "shard" + shard;
+                    final TaskProvider<CppCompile> shardCompileTask = tasks.register(compileTaskName(binary, shardName), CppCompile.class);
+                    compileTasks.add(shardCompileTask);
+                    final FileCollection shardSource = unitySource(component, extension, shardCompileTask, shardName, extension.getCppSource(shard));
+                    shardCompileTask.configure(copyFrom(extension, compileTask));
+                    shardCompileTask.configure(task -> {
+                        task.getCompilerArgs().disallowChanges();
+                        task.getSource().from(shardSource).disallowChanges();
+                        task.getObjectFileDir()
+                                .fileValue(objectFileDirOf(task))
+                                .disallowChanges();
+                    });
+                    final Provider<List<File>> objectFiles = objectFilesOf(shardCompileTask);
+                    linkObjectFiles(binary, objectFiles);
+                    compilation.add(shardCompileTask, objectFiles);
+                    instrumentedObjects.add(objectFiles);
+                }
+                extension.getSourceCompileFlags().all(new Action<>() {
+                    private final Map<List<String>, TaskProvider<CppCompile>> precompiledHeaderTasks = new HashMap<>();
+                    private final Map<List<String>, ConfigurableFileCollection> precompiledHeaderConsumers = new HashMap<>();
+                    private final Map<File, TaskProvider<GeneratePrecompiledHeaderStub>> precompiledHeaderStubTasks = new HashMap<>();
+                    private Map<List<String>, Integer> precompiledHeaderUsages = null;
+                    private FileCollection profileFiles = null;
+                    private TaskProvider<MergeProfile> mergeProfileTask = null;
+                    private boolean linkTimeOptimized = false;
+
+                    @Override
+                    public void execute(DefaultCompileFlagsExtension.CompileFlagsBucket entry) {
+                        final TaskProvider<CppCompile> sourceCompileTask = tasks.register(compileTaskName(binary, entry.getName()), CppCompile.class);
+                        compileTasks.add(sourceCompileTask);
+                        if (entry.getFlagSet().getCompilerMemoryEstimate() > 0) {
+                            compilerMemoryEstimates.put(sourceCompileTask.getName(), entry.getFlagSet().getCompilerMemoryEstimate());
+                        }
+                        final Object cppSource;
+                        if (entry instanceof DefaultCompileFlagsExtension.SourceSpecBucket) {
+                            cppSource = unitySource(component, extension, sourceCompileTask, entry.getName(), objects.fileCollection().from(entry.getCppSource()));
+                        } else {
+                            cppSource = entry.getCppSource();
+                        }
+                        // The bucket task copies both from the main compile task, see copyFrom, which is configured at this point
+                        entry.getCompilationInformation().set(compileInformationOf(compileTask));
+
+                        final File precompiledHeaderDirectory = precompiledHeaderDirectoryOf(entry);
+                        if (precompiledHeaderDirectory != null) {
+                            precompiledHeaderConsumers.get(precompiledHeaderKeyOf(entry)).from(cppSource);
+                        }
+                        final File profile = entry.getFlagSet().isProfileGuided() ? profileOf(entry) : null;
+                        final FileCollection profileFiles = this.profileFiles;
+                        if (entry.getFlagSet().isLinkTimeOptimized() && !linkTimeOptimized) {
+                            linkTimeOptimized = true;
+                            compilation.linkTimeOptimized = true;
+                            linkWithLinkTimeOptimization(binary);
+                        }
+
+                        sourceCompileTask.configure(copyFrom(extension, compileTask));
+                        sourceCompileTask.configure(task -> {
+                            task.getCompilerArgs().addAll(entry.getCompileFlags());
+                            if (precompiledHeaderDirectory != null) {
+                                // Relative to the compiler working directory, i.e. the object directory, to keep the compiler args relocatable
+                                final File stubHeader = new File(precompiledHeaderDirectory, entry.getFlagSet().getPrecompiledHeader().getName());
+                                task.getCompilerArgs().addAll("-Winvalid-pch", "-include", relativePath(objectFileDirOf(task), stubHeader));
+                                task.getInputs().files(objects.fileCollection().from(precompiledHeaderDirectory).builtBy(precompiledHeaderTasks.get(precompiledHeaderKeyOf(entry))))
+                                        .withPropertyName("precompiledHeader")
+                                        .withPathSensitivity(PathSensitivity.RELATIVE);
+                            }
+                            if (profile != null) {
+                                // Shared by the compile tasks of the binary, each installs the profile of its own objects, see InstallProfile
+                                final File profileLookupDirectory = new File(profileTrainingDirectory(), "lookup");
+                                final String profilePath = relativePath(objectFileDirOf(task), profile);
+                                final String profileLookupPath = relativePath(objectFileDirOf(task), profileLookupDirectory);
+                                task.getCompilerArgs().addAll(task.getToolChain().map(it -> profileUseFlagsOf(it, profilePath, profileLookupPath)));
+                                task.getInputs().files(profileFiles)
+                                        .withPropertyName("profile")
+                                        .withPathSensitivity(PathSensitivity.RELATIVE);
+                                task.doFirst(new InstallProfile(new File(profile, relativePath(buildDirectory(), objectFileDirOf(task))), objectFileDirOf(task), profileLookupDirectory));
+                            }
+                            if (entry.getFlagSet().isLinkTimeOptimized()) {
+                                task.getCompilerArgs().addAll(task.getToolChain().map(CompileFlagsPerSourceFilePlugin::linkTimeOptimizationFlagsOf));
+                            }
+                            task.getCompilerArgs().disallowChanges();
+                            task.getSource().from(cppSource).disallowChanges();
+
+                            // We use the temporary directory to ensure the output directories are different
+                            task.getObjectFileDir()
+                                    .fileValue(objectFileDirOf(task))
+                                    .disallowChanges();
+                        });
+
+                        final Provider<List<File>> objectFiles = objectFilesOf(sourceCompileTask);
+                        linkObjectFiles(binary, objectFiles);
+                        compilation.add(sourceCompileTask, objectFiles);
+                        if (profile != null && mergeProfileTask != null) {
+                            instrumentedObjects.add(objectFilesOf(instrumentedCompileTaskOf(entry, cppSource, sourceCompileTask)));
+                        } else {
+                            instrumentedObjects.add(objectFiles);
+                        }
+                    }
+
+                    // The profile of the buckets marked for profile guided optimization, trained once per binary unless given, see CompileFlagsExtension#getProfile().
+                    //   Returns null when no profile can be trained, the bucket is then compiled without profile.
+                    private File profileOf(DefaultCompileFlagsExtension.CompileFlagsBucket entry) {
+                        if (extension.getProfile().isPresent()) {
+                            if (profileFiles == null) {
+                                profileFiles = objects.fileCollection().from(extension.getProfile());
+                            }
+                            return extension.getProfile().get().getAsFile();
+                        }
+
+                        if (!(binary instanceof ComponentWithExecutable) || binary.getToolChain() instanceof VisualCpp) {
+                            LOGGER.warn("Compiling '{}' of {} without profile: training a profile requires an executable compiled by GCC or Clang, use 'profile' to provide one.", entry.getName(), binary);
+                            return null;
+                        }
+
+                        final File result = new File(profileTrainingDirectory(), "profile");
+                        if (mergeProfileTask == null) {
+                            final TaskProvider<Exec> trainTask = registerProfileTraining();
+                            final File rawProfileDirectory = rawProfileDirectory();
+                            mergeProfileTask = tasks.register(mergeProfileTaskName(binary), MergeProfile.class, task -> {
+                                task.setDescription("Merges the profile trained by " + trainTask.getName() + ".");
+                                task.getRawProfileDirectory().fileProvider(trainTask.map(__ -> rawProfileDirectory)).disallowChanges();
+                                task.getClang().value(binary.getToolChain() instanceof Clang).disallowChanges();
+                                task.getOutputDirectory().fileValue(result).disallowChanges();
                             });
+                            profileFiles = objects.fileCollection().from(result).builtBy(mergeProfileTask);
+                        }
+                        return result;
+                    }
+
+                    // Links the instrumented objects of the profile guided buckets with the regular objects of the other buckets, then runs the executable.
+                    private TaskProvider<Exec> registerProfileTraining() {
+                        final String executableName = binary.getBaseName().get() + (binary.getTargetPlatform().getTargetMachine().getOperatingSystemFamily().isWindows() ? ".exe" : "");
+                        final File instrumentedExecutable = new File(profileTrainingDirectory(), executableName);
+                        final File rawProfileDirectory = rawProfileDirectory();
+                        final TaskProvider<LinkExecutable> linkTask = tasks.register(linkInstrumentedTaskName(binary), LinkExecutable.class, task -> {
+                            final Provider<? extends LinkExecutable> mainLinkTask = ((ComponentWithExecutable) binary).getLinkTask();
+                            task.setDescription("Links the executable of " + binary + " instrumented for profile guided optimization.");
+                            task.getToolChain().value(mainLinkTask.flatMap(AbstractLinkTask::getToolChain)).disallowChanges();
+                            task.getTargetPlatform().value(mainLinkTask.flatMap(AbstractLinkTask::getTargetPlatform)).disallowChanges();
+                            task.getDebuggable().value(mainLinkTask.flatMap(AbstractLinkTask::getDebuggable)).disallowChanges();
+                            task.getLinkerArgs().addAll(mainLinkTask.flatMap(AbstractLinkTask::getLinkerArgs));
+                            task.getLinkerArgs().add("-fprofile-generate");
+                            task.getLinkerArgs().disallowChanges();
+                            task.getLibs().from(((ComponentWithExecutable) binary).getLinkLibraries());
+                            instrumentedObjects.forEach(task::source);
+                            task.getLinkedFile().fileValue(instrumentedExecutable).disallowChanges();
+                        });
+                        return tasks.register(trainProfileTaskName(binary), Exec.class, task -> {
+                            task.setDescription("Runs the instrumented executable of " + binary + " to train the profile of its profile guided sources.");
+                            task.getInputs().files(linkTask)
+                                    .withPropertyName("instrumentedExecutable")
+                                    .withPathSensitivity(PathSensitivity.NAME_ONLY);
+                            task.getOutputs().dir(rawProfileDirectory).withPropertyName("rawProfile");
+                            task.setExecutable(instrumentedExecutable.getAbsolutePath());
+                            // GCC writes each .gcda under the object path relative to the build directory, see MergeProfile
+                            task.environment("GCOV_PREFIX", rawProfileDirectory.getAbsolutePath());
+                            task.environment("GCOV_PREFIX_STRIP", buildDirectory().toPath().getNameCount());
+                            task.doFirst(new CleanDirectory(rawProfileDirectory));
+                            extension.configureProfileTraining(task);
+                        });
+                    }
+
+                    private File profileTrainingDirectory() {
+                        return layout.getBuildDirectory().dir("pgo/" + qualifyingName(binary)).get().getAsFile();
+                    }
 
-                            project.getTasks().named(linkTaskName(binary), AbstractLinkTask.class, task -> {
-                                task.source(sourceCompileTask.map(it -> it.getObjectFileDir().getAsFileTree().matching(objectFiles())));
+                    private File rawProfileDirectory() {
+                        return new File(profileTrainingDirectory(), "raw");
+                    }
+
+                    // Compiled like the bucket, without precompiled header nor link time optimization, writing its profile into the raw profile directory.
+                    private TaskProvider<CppCompile> instrumentedCompileTaskOf(DefaultCompileFlagsExtension.CompileFlagsBucket entry, Object cppSource, TaskProvider<CppCompile> sourceCompileTask) {
+                        final File rawProfileDirectory = rawProfileDirectory();
+                        final TaskProvider<CppCompile> result = tasks.register(compileTaskName(binary, entry.getName() + "Instrumented"), CppCompile.class);
+                        result.configure(copyFrom(extension, compileTask));
+                        result.configure(task -> {
+                            task.getCompilerArgs().addAll(entry.getCompileFlags());
+                            // Absolute for Clang, the instrumented executable writes its profile relative to its own working directory otherwise
+                            task.getCompilerArgs().addAll(task.getToolChain().map(it -> profileGenerateFlagsOf(it, rawProfileDirectory)));
+                            task.getCompilerArgs().disallowChanges();
+                            task.getSource().from(cppSource).disallowChanges();
+                            task.getObjectFileDir()
+                                    .fileValue(objectFileDirOf(task))
+                                    .disallowChanges();
+                        });
+                        mergeProfileTask.configure(task -> task.getObjectFileDirectories().put(relativePath(buildDirectory(), objectFileDirOf(result.getName())), relativePath(buildDirectory(), objectFileDirOf(sourceCompileTask.getName()))));
+                        return result;
+                    }
+
+                    // One stub per header, whatever the flags it is precompiled with
+                    private TaskProvider<GeneratePrecompiledHeaderStub> precompiledHeaderStubTaskOf(File header) {
+                        return precompiledHeaderStubTasks.computeIfAbsent(header, __ -> {
+                            final String taskName = generatePrecompiledHeaderStubTaskName(binary, DefaultCompileFlagsExtension.hashOf(Collections.singletonList(relativePath(layout.getProjectDirectory().getAsFile(), header))));
+                            final File stub = layout.getBuildDirectory().file("tmp/" + taskName + "/" + header.getName()).get().getAsFile();
+                            return tasks.register(taskName, GeneratePrecompiledHeaderStub.class, task -> {
+                                task.setDescription("Generates the stub precompiling '" + header.getName() + "' for " + binary + ".");
+                                task.getIncludePath().value(relativePath(stub.getParentFile(), header)).disallowChanges();
+                                task.getOutputFile().fileValue(stub).disallowChanges();
                             });
+                        });
+                    }
+
+                    // Precompile the header once per distinct flag set, a precompiled header is only valid for the flags it was compiled with.
+                    //   Returns the directory containing the precompiled header, or null when falling back to regular compilation.
+                    private File precompiledHeaderDirectoryOf(DefaultCompileFlagsExtension.CompileFlagsBucket entry) {
+                        final File header = entry.getFlagSet().getPrecompiledHeader();
+                        if (header == null) {
+                            return null;
+                        }
+
+                        if (binary.getToolChain() instanceof VisualCpp) {
+                            LOGGER.warn("Compiling '{}' of {} without precompiled header '{}': precompiled headers are not supported for Visual C++.", entry.getName(), binary, header);
+                            return null;
                         }
 
-                        private Action<PatternFilterable> objectFiles() {
-                            return it -> it.include("**/*.o", "**/*.obj");
+                        if (entry.getFlagSet().isProfileGuided() || entry.getFlagSet().isLinkTimeOptimized()) {
+                            LOGGER.info("Compiling '{}' of {} without precompiled header '{}': the header would not be valid for profile guided or link time optimized compilation.", entry.getName(), binary, header);
+                            return null;
                         }
 
-                        private Action<CppCompile> copyFrom(Provider<CppCompile> compileTask) {
-                            return task -> {
-                                task.getCompilerArgs().addAll(compileTask.flatMap(CppCompile::getCompilerArgs));
-                                // Do not lock as we allow additional flags
-
-                                task.getIncludes()
-                                        .from(compileTask.flatMap(elementsOf(CppCompile::getIncludes)))
-                                        .disallowChanges();
-                                task.getToolChain()
-                                        .value(compileTask.flatMap(CppCompile::getToolChain))
-                                        .disallowChanges();
-                                // Add macros as flag because CppCompile#macros is not a Gradle property.
-                                task.getCompilerArgs().addAll(task.getToolChain().zip(compileTask.flatMap(it -> project.provider(it::getMacros)), this::toMacroFlags));
-                                task.getSystemIncludes()
-                                        .from(compileTask.flatMap(elementsOf(CppCompile::getSystemIncludes)))
-                                        .disallowChanges();
-                                task.getTargetPlatform()
-                                        .value(compileTask.flatMap(CppCompile::getTargetPlatform))
-                                        .disallowChanges();
-                            };
+                        final List<String> key = precompiledHeaderKeyOf(entry);
+                        if (precompiledHeaderUsagesOf(key) < 2) {
+                            LOGGER.info("Compiling '{}' of {} without precompiled header '{}': no other translation unit shares its flags, precompiling would not pay off.", entry.getName(), binary, header);
+                            return null;
                         }
 
-                        private List<String> toMacroFlags(NativeToolChain toolChain, Map<String, String> macros) {
-                            return macros.entrySet().stream().map(it -> {
-                                final StringBuilder builder = new StringBuilder();
+                        final String taskName = precompileHeaderTaskName(binary, DefaultCompileFlagsExtension.hashOf(key));
+                        final File result = layout.getBuildDirectory().dir("pch/" + taskName).get().getAsFile();
+                        final ConfigurableFileCollection consumerSources = precompiledHeaderConsumers.computeIfAbsent(key, __ -> objects.fileCollection());
+                        final TaskProvider<GeneratePrecompiledHeaderStub> stubTask = precompiledHeaderStubTaskOf(header);
+                        precompiledHeaderTasks.computeIfAbsent(key, __ -> tasks.register(taskName, CppCompile.class, task -> {
+                            task.onlyIf(new HasSources(consumerSources));
+                            copyFrom(extension, compileTask).execute(task);
+                            task.getCompilerArgs().addAll(entry.getCompileFlags());
+                            task.getCompilerArgs().addAll("-x", "c++-header");
+                            task.getCompilerArgs().disallowChanges();
+                            task.getSource().from(stubTask).disallowChanges();
+                            task.getObjectFileDir()
+                                    .fileValue(objectFileDirOf(task))
+                                    .disallowChanges();
+                            task.getOutputs().dir(result).withPropertyName("precompiledHeaderDirectory");
+                            task.doLast(new InstallPrecompiledHeader(task.getObjectFileDir().get().getAsFile(), result, header, binary.getToolChain() instanceof Clang ? ".pch" : ".gch"));
+                        }));
+                        return result;
+                    }
 
-                                if (toolChain instanceof VisualCpp)
-                                    builder.append("/D");
-                                else
-                                    builder.append("-D");
+                    private List<String> precompiledHeaderKeyOf(DefaultCompileFlagsExtension.CompileFlagsBucket entry) {
+                        final List<String> result = new ArrayList<>(entry.getFlagSet().getFlags());
+                        result.add("#pch " + relativePath(layout.getProjectDirectory().getAsFile(), entry.getFlagSet().getPrecompiledHeader()));
+                        return result;
+                    }
 
-                                builder.append(it.getKey());
-                                if (it.getValue() != null) {
-                                    builder.append("=").append(it.getValue());
+                    // Buckets are all known at this point as the extension is finalized before the binaries are configured.
+                    private int precompiledHeaderUsagesOf(List<String> key) {
+                        if (precompiledHeaderUsages == null) {
+                            precompiledHeaderUsages = new HashMap<>();
+                            for (DefaultCompileFlagsExtension.CompileFlagsBucket bucket : extension.getSourceCompileFlags()) {
+                                if (bucket.getFlagSet().getPrecompiledHeader() != null) {
+                                    // Only single source buckets are known to contain a single translation unit
+                                    final int weight = bucket instanceof DefaultCompileFlagsExtension.SingleSourceFileBucket ? 1 : 2;
+                                    precompiledHeaderUsages.merge(precompiledHeaderKeyOf(bucket), weight, Integer::sum);
                                 }
-                                return builder.toString();
-                            }).collect(Collectors.toList());
+                            }
                         }
-                    });
+                        return precompiledHeaderUsages.getOrDefault(key, 2);
+                    }
                 });
+
+                // All compile tasks are known, the buckets are added when the extension is finalized
+                if (extension.getScheduleLongestFirst().get()) {
+                    scheduleLongestFirst(scheduledTasks);
+                }
             }
         });
     }
 
+    private static CompileFlagsExtension.CompileInformation compileInformationOf(Provider<? extends AbstractNativeCompileTask> compileTask) {
+        return new CompileFlagsExtension.CompileInformation() {
+            @Override
+            public Provider<NativeToolChain> getToolChain() {
+                return compileTask.flatMap(AbstractNativeCompileTask::getToolChain);
+            }
+
+            @Override
+            public Provider<NativePlatform> getTargetPlatform() {
+                return compileTask.flatMap(AbstractNativeCompileTask::getTargetPlatform);
+            }
+        };
+    }
+
+    // Additional compile tasks of a binary and their objects, linked by the other binaries of the component compiling the same way.
+    //   Buckets are all known once the extension is finalized, hence once the first binary added its compile tasks.
+    private static final class SharedCompilation {
+        private final String binary;
+        private final List<TaskProvider<CppCompile>> compileTasks = new ArrayList<>();
+        private final List<Provider<List<File>>> objectFiles = new ArrayList<>();
+        private boolean linkTimeOptimized = false;
+
+        SharedCompilation(String binary) {
+            this.binary = binary;
+        }
+
+        void add(TaskProvider<CppCompile> compileTask, Provider<List<File>> objectFiles) {
+            this.compileTasks.add(compileTask);
+            this.objectFiles.add(objectFiles);
+        }
+    }
+
+    private static final class HasSources implements Spec<Task> {
+        private final FileCollection sources;
+
+        HasSources(FileCollection sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(Task task) {
+            return !sources.isEmpty();
+        }
+    }
+
+    // Moves the object compiled from the header next to a stub header including the original header.
+    //   The compiler falls back to the original header when the precompiled header is invalid.
+    private static final class InstallPrecompiledHeader implements Action<Task> {
+        private final File objectFileDir;
+        private final File precompiledHeaderDirectory;
+        private final File header;
+        private final String extension;
+
+        InstallPrecompiledHeader(File objectFileDir, File precompiledHeaderDirectory, File header, String extension) {
+            this.objectFileDir = objectFileDir;
+            this.precompiledHeaderDirectory = precompiledHeaderDirectory;
+            this.header = header;
+            this.extension = extension;
+        }
+
+        @Override
+        public void execute(Task task) {
+            try {
+                final Path objectFile;
+                try (Stream<Path> files = Files.walk(objectFileDir.toPath())) {
+                    objectFile = files.filter(it -> it.getFileName().toString().endsWith(".o")).findFirst()
+                            .orElseThrow(() -> new IllegalStateException("No precompiled header was produced for '" + header + "'"));
+                }
+
+                Files.createDirectories(precompiledHeaderDirectory.toPath());
+                Files.copy(objectFile, precompiledHeaderDirectory.toPath().resolve(header.getName() + extension), StandardCopyOption.REPLACE_EXISTING);
+                final String includePath = precompiledHeaderDirectory.toPath().relativize(header.toPath()).toString().replace(File.separatorChar, '/');
+                Files.write(precompiledHeaderDirectory.toPath().resolve(header.getName()), ("#include \"" + includePath + "\"\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Removes the profile of the previous training run, GCC would accumulate the counts otherwise.
+    private static final class CleanDirectory implements Action<Task> {
+        private final File directory;
+
+        CleanDirectory(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void execute(Task task) {
+            try {
+                if (directory.exists()) {
+                    try (Stream<Path> files = Files.walk(directory.toPath())) {
+                        for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                            Files.delete(file);
+                        }
+                    }
+                }
+                Files.createDirectories(directory.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Copies the merged .gcda files of the objects of a compile task to where GCC looks them up, the lookup directory mirrors the absolute object paths.
+    //   The merged profile only mirrors the paths relative to the build directory, the profile and the compile tasks stay relocatable.
+    //   -fprofile-prefix-path doesn't help, GCC ignores it for the absolute object paths given by Gradle.
+    private static final class InstallProfile implements Action<Task> {
+        private final File profile;
+        private final File objectFileDirectory;
+        private final File lookupDirectory;
+
+        InstallProfile(File profile, File objectFileDirectory, File lookupDirectory) {
+            this.profile = profile;
+            this.objectFileDirectory = objectFileDirectory;
+            this.lookupDirectory = lookupDirectory;
+        }
+
+        @Override
+        public void execute(Task task) {
+            final Path objectFilePath = objectFileDirectory.toPath().toAbsolutePath();
+            final Path target = lookupDirectory.toPath().resolve(objectFilePath.getRoot().relativize(objectFilePath).toString());
+            new CleanDirectory(target.toFile()).execute(task);
+            // Clang's profile has no such directory
+            if (!profile.isDirectory()) {
+                return;
+            }
+            try (Stream<Path> files = Files.walk(profile.toPath())) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    final Path targetFile = target.resolve(profile.toPath().relativize(file).toString());
+                    Files.createDirectories(targetFile.getParent());
+                    Files.copy(file, targetFile);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Creates the compile memory budget before the compilers of the task take its slots, see CompilerMemoryBudget.
+    //   Tells the compilers how many slots they take through a file of their working directory, as the compiler scripts are shared by the compile tasks.
+    //   The action run once compiled deletes the file, it would otherwise be a previous output of the task, deleted by a full recompilation before the compilers run.
+    private static final class UseCompilerMemoryBudget implements Action<Task> {
+        private final Provider<CompilerMemoryBudget> budget;
+        private final long compilerMemoryEstimate;
+        private final boolean compiled;
+
+        UseCompilerMemoryBudget(Provider<CompilerMemoryBudget> budget, long compilerMemoryEstimate, boolean compiled) {
+            this.budget = budget;
+            this.compilerMemoryEstimate = compilerMemoryEstimate;
+            this.compiled = compiled;
+        }
+
+        @Override
+        public void execute(Task task) {
+            final Path objectFileDir = ((CppCompile) task).getObjectFileDir().get().getAsFile().toPath();
+            try {
+                if (compiled) {
+                    Files.deleteIfExists(objectFileDir.resolve(CompilerMemoryBudget.SLOTS_FILE_NAME));
+                    return;
+                }
+                final int slots = budget.get().slotsOf(compilerMemoryEstimate);
+                Files.createDirectories(objectFileDir);
+                Files.write(objectFileDir.resolve(CompilerMemoryBudget.SLOTS_FILE_NAME), Collections.singletonList(String.valueOf(slots)), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Reports the hits and misses of the compiler cache, from the statistics log ccache writes next to the objects (sccache has no such log).
+    //   The action not reporting clears the log of the previous execution, to be added with Task#doFirst.
+    private static final class ReportCompilerCacheStatistics implements Action<Task> {
+        private final boolean report;
+
+        ReportCompilerCacheStatistics(boolean report) {
+            this.report = report;
+        }
+
+        @Override
+        public void execute(Task task) {
+            final Path log = ((CppCompile) task).getObjectFileDir().get().getAsFile().toPath().resolve(CompilerLauncher.STATISTICS_FILE_NAME);
+            try {
+                if (!report) {
+                    Files.deleteIfExists(log);
+                    return;
+                }
+                if (!Files.exists(log)) {
+                    task.getLogger().info("No compiler cache statistics for {}", task.getPath());
+                    return;
+                }
+                int compilations = 0;
+                int hits = 0;
+                int misses = 0;
+                for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("#")) {
+                        ++compilations;
+                    } else if (line.equals("direct_cache_hit") || line.equals("preprocessed_cache_hit")) {
+                        ++hits;
+                    } else if (line.equals("cache_miss")) {
+                        ++misses;
+                    }
+                }
+                task.getLogger().lifecycle("Compiler cache of {}: {} hits, {} misses, {} uncacheable", task.getPath(), hits, misses, compilations - hits - misses);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Records the wall time of the whole compile task, including the time spent in Gradle itself, since the given start time.
+    private static final class RecordCompileTaskTime implements Action<Task> {
+        private final StartTime startTime;
+        private final File outputFile;
+
+        RecordCompileTaskTime(StartTime startTime, File outputFile) {
+            this.startTime = startTime;
+            this.outputFile = outputFile;
+        }
+
+        @Override
+        public void execute(Task task) {
+            write(outputFile, startTime.wallTime());
+        }
+
+        static void write(File outputFile, long value) {
+            try {
+                Files.createDirectories(outputFile.getParentFile().toPath());
+                Files.write(outputFile.toPath(), String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Records the start time of the task, to be added with Task#doFirst.
+        //   Owned by a single task and shared with its doLast actions, task paths are only unique within their build (e.g. not across included builds running in parallel).
+        static final class StartTime implements Action<Task> {
+            private volatile long value = -1;
+
+            @Override
+            public void execute(Task task) {
+                value = System.currentTimeMillis();
+            }
+
+            long wallTime() {
+                final long now = System.currentTimeMillis();
+                return Math.max(1, now - (value < 0 ? now : value));
+            }
+        }
+    }
+
+    // Writes a file when the task starts, the files written by the task are at least as recent as it with the same timestamp resolution.
+    //   To be added with Task#doFirst, owned by a single task and shared with its doLast actions.
+    static final class FileSystemStartTime implements Action<Task> {
+        private volatile FileTime value = null;
+
+        @Override
+        public void execute(Task task) {
+            try {
+                final Path marker = task.getTemporaryDir().toPath().resolve("started");
+                Files.write(marker, new byte[0]);
+                value = Files.getLastModifiedTime(marker);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        boolean isWrittenSince(Path file) throws IOException {
+            return value != null && Files.getLastModifiedTime(file).compareTo(value) >= 0;
+        }
+    }
+
+    // Records the task duration rounded to a power of two for scheduling, see scheduleLongestFirst.
+    //   Only full compilations are recorded, an incremental compilation says nothing about the duration of the task.
+    //   The duration recorded by the previous build is kept unless the new one is off by more than a factor two,
+    //   otherwise durations close to a power of two would flip (and reorder the tasks) on every full compilation.
+    private static final class RecordCompileDuration implements Action<Task> {
+        private final RecordCompileTaskTime.StartTime startTime;
+        private final FileSystemStartTime fileSystemStartTime;
+        private final File outputFile;
+
+        RecordCompileDuration(RecordCompileTaskTime.StartTime startTime, FileSystemStartTime fileSystemStartTime, File outputFile) {
+            this.startTime = startTime;
+            this.fileSystemStartTime = fileSystemStartTime;
+            this.outputFile = outputFile;
+        }
+
+        @Override
+        public void execute(Task task) {
+            if (!isFullCompilation((CppCompile) task)) {
+                return;
+            }
+            final long duration = Long.highestOneBit(startTime.wallTime());
+            final long recordedDuration = LongestFirst.durationOf(outputFile);
+            if (recordedDuration > 0 && duration >= recordedDuration / 2 && duration <= recordedDuration * 2) {
+                return;
+            }
+            RecordCompileTaskTime.write(outputFile, duration);
+        }
+
+        // Every translation unit was compiled by this execution, i.e. there's an object written since the task started for each source
+        private boolean isFullCompilation(CppCompile task) {
+            try {
+                final List<Path> objects = WriteObjectManifest.objectFilesIn(task.getObjectFileDir().get().getAsFile().toPath());
+                for (Path object : objects) {
+                    if (!fileSystemStartTime.isWrittenSince(object)) {
+                        return false;
+                    }
+                }
+                return !objects.isEmpty() && objects.size() == task.getSource().getFiles().size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // The given compile tasks by recorded duration, longest first, see scheduleLongestFirst.
+    //   Tasks without recorded duration come first, as they might be the longest, ties are ordered by name to keep the order stable.
+    //   Obtained while configuring, the configuration cache compares the order rather than the durations.
+    /*private*/ static abstract /*final*/ class LongestFirst implements ValueSource<List<String>, LongestFirst.Parameters> {
+        interface Parameters extends ValueSourceParameters {
+            DirectoryProperty getDurationsDirectory();
+            SetProperty<String> getTaskNames();
+        }
+
+        @Inject
+        public LongestFirst() {}
+
+        @Override
+        public List<String> obtain() {
+            final File durationsDirectory = getParameters().getDurationsDirectory().get().getAsFile();
+            final Map<String, Long> durations = new HashMap<>();
+            for (String taskName : getParameters().getTaskNames().get()) {
+                final long duration = durationOf(new File(durationsDirectory, taskName + ".ms"));
+                durations.put(taskName, duration < 0 ? Long.MAX_VALUE : duration);
+            }
+            final List<String> result = new ArrayList<>(durations.keySet());
+            result.sort(Comparator.comparing((String it) -> durations.get(it)).reversed().thenComparing(Comparator.naturalOrder()));
+            return result;
+        }
+
+        static long durationOf(File file) {
+            if (!file.isFile()) {
+                return -1L;
+            }
+            try {
+                return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+            } catch (IOException | NumberFormatException e) {
+                return -1L;
+            }
+        }
+    }
+
+    private static List<String> instrumentationFlagsOf(NativeToolChain toolChain, File objectFileDir, File wrapper, File measurements) {
+        if (toolChain instanceof VisualCpp) {
+            return Collections.emptyList();
+        } else if (toolChain instanceof Clang) {
+            return Collections.singletonList("-ftime-trace");
+        }
+        // Relative to the compiler working directory, i.e. the object directory, to keep the compiler args relocatable
+        return Arrays.asList("-wrapper", "sh," + relativePath(objectFileDir, wrapper) + "," + relativePath(objectFileDir, measurements));
+    }
+
+    // Clang uses the merged profile, GCC looks up each .gcda under the absolute object path in the lookup directory, see InstallProfile.
+    //   Partial training keeps the code not run by the training optimized as usual instead of optimizing it for size.
+    private static List<String> profileUseFlagsOf(NativeToolChain toolChain, String profile, String profileLookup) {
+        if (toolChain instanceof Clang) {
+            return Arrays.asList("-fprofile-use=" + profile + "/" + MergeProfile.CLANG_PROFILE_NAME, "-Wno-profile-instr-unprofiled");
+        }
+        return Arrays.asList("-fprofile-use=" + profileLookup, "-fprofile-partial-training", "-Wno-missing-profile");
+    }
+
+    private static List<String> profileGenerateFlagsOf(NativeToolChain toolChain, File rawProfileDirectory) {
+        if (toolChain instanceof Clang) {
+            return Collections.singletonList("-fprofile-generate=" + rawProfileDirectory.getAbsolutePath());
+        }
+        // The training run may be multi-threaded, and writes the profile where GCOV_PREFIX points to, see train<Binary>Profile
+        return Arrays.asList("-fprofile-generate", "-fprofile-update=atomic");
+    }
+
+    private static List<String> linkTimeOptimizationFlagsOf(NativeToolChain toolChain) {
+        if (toolChain instanceof VisualCpp) {
+            return Collections.singletonList("/GL");
+        } else if (toolChain instanceof Clang) {
+            return Collections.singletonList("-flto=thin");
+        }
+        return Collections.singletonList("-flto");
+    }
+
+    private static List<String> linkTimeOptimizationLinkerFlagsOf(NativeToolChain toolChain) {
+        if (toolChain instanceof VisualCpp) {
+            return Collections.singletonList("/LTCG");
+        }
+        return linkTimeOptimizationFlagsOf(toolChain);
+    }
+
+    // What copyFrom copies from the main compile task, the additional compile tasks of binaries with the same key compile the same way.
+    //   Without the instrumentation flags, they differ per task and are added to each compile task on its own.
+    private static List<String> compilationKeyOf(CppComponent component, DefaultCompileFlagsExtension extension, CppCompile compileTask) {
+        final List<String> result = new ArrayList<>();
+        result.add("component " + component.getName());
+        result.add("toolChain " + compileTask.getToolChain().get().getName());
+        final NativePlatform targetPlatform = compileTask.getTargetPlatform().get();
+        result.add("targetPlatform " + targetPlatform.getName() + " " + targetPlatform.getOperatingSystem().getName() + " " + targetPlatform.getArchitecture().getName());
+        result.add("debuggable " + compileTask.isDebuggable());
+        result.add("optimized " + compileTask.isOptimized());
+        result.add("positionIndependentCode " + compileTask.isPositionIndependentCode());
+        result.add("macros " + new TreeMap<>(compileTask.getMacros()));
+        for (File include : compileTask.getIncludes().getFiles()) {
+            result.add("include " + include.getAbsolutePath());
+        }
+        for (File include : compileTask.getSystemIncludes().getFiles()) {
+            result.add("systemInclude " + include.getAbsolutePath());
+        }
+        result.addAll(withoutInstrumentationFlags(extension).transform(compileTask.getCompilerArgs().get()));
+        return result;
+    }
+
+    // Instrumentation flags are specific to each compile task, they must not leak into the bucket tasks, the compilation database or the flag set.
+    //   Only the flags added by instrument(TaskProvider) are removed, e.g. a -ftime-trace of the build script still tells the binaries apart (see compilationKeyOf).
+    private static Transformer<List<String>, List<String>> withoutInstrumentationFlags(DefaultCompileFlagsExtension extension) {
+        final boolean instrumented = extension.getInstrumentCompilation().get();
+        return args -> {
+            if (!instrumented) {
+                return args;
+            }
+            final List<String> result = new ArrayList<>();
+            final int timeTrace = args.lastIndexOf("-ftime-trace");
+            for (int i = 0; i < args.size(); ++i) {
+                if (i == timeTrace) {
+                    continue;
+                } else if (args.get(i).equals("-wrapper") && i + 1 < args.size() && args.get(i + 1).contains(GenerateCompileTimeWrapper.SCRIPT_NAME)) {
+                    ++i;
+                    continue;
+                }
+                result.add(args.get(i));
+            }
+            return result;
+        };
+    }
+
+    private static Action<PatternFilterable> traceFiles() {
+        return it -> it.include("**/*.json");
+    }
+
+    // Lists the objects produced by the compile task, relative to its object directory.
+    //   An incremental compilation only writes the objects of the changed sources, the others are the ones listed by the previous manifest
+    //   (Gradle deletes the objects of the removed sources). Any other object wasn't produced by the task, e.g. left over once the task history was lost.
+    //   Such objects make the task out of date, Gradle then compiles every source again and the objects that weren't written by the execution are deleted.
+    private static final class WriteObjectManifest implements Action<Task> {
+        static final String FILE_NAME = "objects.txt";
+        private final FileSystemStartTime startTime;
+
+        WriteObjectManifest(FileSystemStartTime startTime) {
+            this.startTime = startTime;
+        }
+
+        @Override
+        public void execute(Task task) {
+            final CppCompile compileTask = (CppCompile) task;
+            final Path objectFileDir = compileTask.getObjectFileDir().get().getAsFile().toPath();
+            final Path manifest = objectFileDir.resolve(FILE_NAME);
+            try {
+                final Set<String> previousObjectFiles = Files.exists(manifest) ? new HashSet<>(Files.readAllLines(manifest, StandardCharsets.UTF_8)) : Collections.emptySet();
+                final List<String> compiledObjectFiles = new ArrayList<>();
+                final List<String> objectFiles = new ArrayList<>();
+                final List<Path> unknownObjectFiles = new ArrayList<>();
+                for (Path file : objectFilesIn(objectFileDir)) {
+                    final String path = objectFileDir.relativize(file).toString().replace(File.separatorChar, '/');
+                    if (startTime.isWrittenSince(file)) {
+                        compiledObjectFiles.add(path);
+                    } else if (previousObjectFiles.contains(path)) {
+                        objectFiles.add(path);
+                    } else {
+                        unknownObjectFiles.add(file);
+                    }
+                }
+                if (compiledObjectFiles.size() == compileTask.getSource().getFiles().size()) {
+                    objectFiles.clear();
+                }
+                // Left over by an incremental execution when the objects appeared while the task ran, the next execution compiles every source again
+                for (Path file : unknownObjectFiles) {
+                    Files.delete(file);
+                }
+                objectFiles.addAll(compiledObjectFiles);
+                objectFiles.sort(null);
+                Files.write(manifest, objectFiles, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Out of date when the object directory holds objects the manifest doesn't list, Gradle doesn't compile the sources incrementally then
+        static final class ListsEveryObjectFile implements Spec<Task> {
+            @Override
+            public boolean isSatisfiedBy(Task task) {
+                final Path objectFileDir = ((CppCompile) task).getObjectFileDir().get().getAsFile().toPath();
+                final Set<File> objectFiles = new HashSet<>(objectFilesOf(((CppCompile) task).getObjectFileDir().file(FILE_NAME).get()));
+                try {
+                    return objectFilesIn(objectFileDir).stream().allMatch(it -> objectFiles.contains(it.toFile()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        // No manifest when the task had no source or was skipped
+        static List<File> objectFilesOf(RegularFile manifest) {
+            final File file = manifest.getAsFile();
+            if (!file.exists()) {
+                return Collections.emptyList();
+            }
+            try {
+                return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).stream()
+                        .filter(it -> !it.isEmpty())
+                        .map(it -> new File(file.getParentFile(), it))
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        static List<Path> objectFilesIn(Path objectFileDir) throws IOException {
+            if (!Files.isDirectory(objectFileDir)) {
+                return Collections.emptyList();
+            }
+            try (Stream<Path> files = Files.walk(objectFileDir)) {
+                return files.filter(it -> it.getFileName().toString().endsWith(".o") || it.getFileName().toString().endsWith(".obj")).collect(Collectors.toList());
+            }
+        }
+    }
+
+    private static String relativePath(File from, File to) {
+        return from.toPath().relativize(to.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String compilerOf(NativeToolChain toolChain) {
+        if (toolChain instanceof VisualCpp) {
+            return "cl.exe";
+        } else if (toolChain instanceof Clang) {
+            return "clang++";
+        }
+        return "g++";
+    }
+
+    // Mirrors the flags the toolchains derive from CppCompile#isDebuggable, #isOptimized and #isPositionIndependentCode
+    private static List<String> implicitFlagsOf(CppCompile task) {
+        final boolean visualCpp = task.getToolChain().get() instanceof VisualCpp;
+        final List<String> result = new ArrayList<>();
+        if (task.isDebuggable()) {
+            result.add(visualCpp ? "/Zi" : "-g");
+        }
+        if (task.isOptimized()) {
+            result.add(visualCpp ? "/O2" : "-O3");
+        }
+        if (task.isPositionIndependentCode() && !visualCpp) {
+            result.add("-fPIC");
+        }
+        return result;
+    }
+
+    private static List<String> absolutePaths(Set<FileSystemLocation> elements) {
+        return elements.stream().map(it -> it.getAsFile().getAbsolutePath()).collect(Collectors.toList());
+    }
+
+    private static List<String> sorted(List<String> values) {
+        return values.stream().sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> toMacroFlags(NativeToolChain toolChain, Map<String, String> macros) {
+        return macros.entrySet().stream().map(it -> {
+            final StringBuilder builder = new StringBuilder();
+
+            if (toolChain instanceof VisualCpp)
+                builder.append("/D");
+            else
+                builder.append("-D");
+
+            builder.append(it.getKey());
+            if (it.getValue() != null) {
+                builder.append("=").append(it.getValue());
+            }
+            return builder.toString();
+        }).collect(Collectors.toList());
+    }
+
     private static FileCollection cppSourceOf(CppComponent component) {
         FileCollection result = null;
         if (component instanceof ExtensionAware) {
@@ -165,6 +1327,26 @@ public /*final*/ abstract class CompileFlagsPerSourceFilePlugin implements Plugi
             tasks.add(objects.newInstance(CompileTask.class, e));
         }
 
+        // A compile task of another binary compiling the same way, see CompileFlagsExtension#getShareIdenticalCompilations()
+        void addShared(TaskProvider<CppCompile> e) {
+            final CompileTask task = objects.newInstance(CompileTask.class, e);
+            task.shared = true;
+            tasks.add(task);
+        }
+
+        void whenTaskAdded(Action<? super TaskProvider<CppCompile>> action) {
+            tasks.all(it -> action.execute(it.provider));
+        }
+
+        // Only the tasks of this binary, the shared tasks are already configured by their own binary
+        void whenOwnTaskAdded(Action<? super TaskProvider<CppCompile>> action) {
+            tasks.all(it -> {
+                if (!it.shared) {
+                    action.execute(it.provider);
+                }
+            });
+        }
+
         @Override
         public void configureEach(Action<? super CppCompile> action) {
             tasks.all(it -> it.configure(action));
@@ -172,6 +1354,7 @@ public /*final*/ abstract class CompileFlagsPerSourceFilePlugin implements Plugi
 
         /*private*/ static abstract /*final*/ class CompileTask {
             private final TaskProvider<CppCompile> provider;
+            private boolean shared = false;
 
             @Inject
             public CompileTask(TaskProvider<CppCompile> provider) {
@@ -203,9 +1386,41 @@ public /*final*/ abstract class CompileFlagsPerSourceFilePlugin implements Plugi
         return "compile" + capitalize(qualifyingName(binary)) + capitalize(sourceSet) + "Cpp";
     }
 
+    private static String generateUnityTaskName(CppComponent component, String sourceSet) {
+        return "generate" + capitalize(component.getName()) + capitalize(sourceSet) + "UnitySources";
+    }
+
+    private static String generateCompilationDatabaseTaskName(CppBinary binary) {
+        return "generate" + capitalize(qualifyingName(binary)) + "CompilationDatabase";
+    }
+
+    private static String reportCompileTimesTaskName(CppBinary binary) {
+        return "report" + capitalize(qualifyingName(binary)) + "CompileTimes";
+    }
+
+    private static String generatePrecompiledHeaderStubTaskName(CppBinary binary, String hash) {
+        return "generate" + capitalize(qualifyingName(binary)) + "PrecompiledHeaderStub" + hash;
+    }
+
+    private static String precompileHeaderTaskName(CppBinary binary, String hash) {
+        return "precompile" + capitalize(qualifyingName(binary)) + "Header" + hash;
+    }
+
     private static String linkTaskName(CppBinary binary) {
         return "link" + capitalize(qualifyingName(binary));
     }
+
+    private static String linkInstrumentedTaskName(CppBinary binary) {
+        return "link" + capitalize(qualifyingName(binary)) + "Instrumented";
+    }
+
+    private static String trainProfileTaskName(CppBinary binary) {
+        return "train" + capitalize(qualifyingName(binary)) + "Profile";
+    }
+
+    private static String mergeProfileTaskName(CppBinary binary) {
+        return "merge" + capitalize(qualifyingName(binary)) + "Profile";
+    }
     //endregion
 
     //region StringUtils
@@ -214,6 +1429,9 @@ public /*final*/ abstract class CompileFlagsPerSourceFilePlugin implements Plugi
     }
 
     private static String capitalize(String s) {
+        if (s.isEmpty()) {
+            return s;
+        }
         return Character.toUpperCase(s.charAt(0)) + s.substring(1);
     }
     //endregion
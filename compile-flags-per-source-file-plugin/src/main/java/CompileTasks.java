@@ -4,6 +4,7 @@ import org.gradle.language.cpp.CppBinary;
 import org.gradle.language.cpp.tasks.CppCompile;
 
 public interface CompileTasks {
+    // Including the tasks shared with another binary, see CompileFlagsExtension#getShareIdenticalCompilations()
     void configureEach(Action<? super CppCompile> action);
 
     static CompileTasks forBinary(CppBinary binary) {
@@ -0,0 +1,146 @@
+import org.gradle.api.Action;
+import org.gradle.api.file.Directory;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildServiceRegistry;
+import org.gradle.nativeplatform.toolchain.GccCompatibleToolChain;
+import org.gradle.nativeplatform.toolchain.GccPlatformToolChain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Runs the C++ compiler of the project's GCC-compatible tool chains through a compiler cache launcher, see CompileFlagsExtension#getCompilerLauncher().
+//   The tool chain's compiler is replaced by a script invoking the launcher with the original compiler, as the compile tasks have no notion of launcher.
+//   The script maps the paths below the base directory to relative paths (cache key and debug information), so cache hits survive different checkout roots.
+// The script also takes a slot of the compile memory budget for the compiler it runs, see CompilerMemoryBudget.
+final class CompilerLauncher {
+    static final String STATISTICS_FILE_NAME = "compiler-cache-stats.log";
+    // Below the build directory, only resolved once a launcher or a budget is declared
+    private final Provider<Directory> directory;
+    private final File baseDirectory;
+    // Transient as the configuration cache stores the tool chains along with their configuration actions
+    private final transient List<DefaultCompileFlagsExtension> extensions = new ArrayList<>();
+    private final transient BuildServiceRegistry sharedServices;
+    private final transient Provider<Directory> slotsDirectory;
+    private final Map<String, String> scripts = Collections.synchronizedMap(new TreeMap<>());
+
+    CompilerLauncher(Provider<Directory> directory, File baseDirectory, BuildServiceRegistry sharedServices, Provider<Directory> slotsDirectory) {
+        this.directory = directory;
+        this.baseDirectory = baseDirectory;
+        this.sharedServices = sharedServices;
+        this.slotsDirectory = slotsDirectory;
+    }
+
+    void add(DefaultCompileFlagsExtension extension) {
+        extensions.add(extension);
+    }
+
+    // The launcher of the first component declaring one, the tool chains are shared by all components of the project
+    DefaultCompileFlagsExtension getSettings() {
+        for (DefaultCompileFlagsExtension extension : extensions) {
+            if (extension.getCompilerLauncher().isPresent()) {
+                return extension;
+            }
+        }
+        return null;
+    }
+
+    // The budget of the build once a component of the project declares one, null otherwise
+    Provider<CompilerMemoryBudget> getBudget() {
+        for (DefaultCompileFlagsExtension extension : extensions) {
+            if (extension.getCompileMemoryBudget().isPresent()) {
+                return CompilerMemoryBudget.of(sharedServices, extension.getCompileMemoryBudget().get(), extension.getCompilerMemoryEstimate().get(), slotsDirectory);
+            }
+        }
+        return null;
+    }
+
+    // Script path, relative to the launcher directory, to its content
+    Map<String, String> getScripts() {
+        return new TreeMap<>(scripts);
+    }
+
+    Provider<Directory> getDirectory() {
+        return directory;
+    }
+
+    // Platforms are configured when a binary selects its tool chain, i.e. after the build script configured the extensions.
+    //   The script is written right away as the tool chain probes the compiler when selected, see GenerateCompilerLaunchers for builds reusing the configuration cache.
+    Action<GccPlatformToolChain> forToolChain(GccCompatibleToolChain toolChain) {
+        return platform -> {
+            final String compiler = platform.getCppCompiler().getExecutable();
+            final String name = toolChain.getName() + "/" + new File(compiler).getName();
+            if (extensions != null) {
+                final DefaultCompileFlagsExtension settings = getSettings();
+                final Provider<CompilerMemoryBudget> budget = getBudget();
+                if ((settings == null && budget == null) || File.separatorChar != '/') {
+                    return;
+                }
+                final String script = scriptOf(settings, compilerPathOf(toolChain, compiler), budget == null ? null : CompilerMemoryBudget.parametersOf(sharedServices));
+                scripts.put(name, script);
+                write(directory.get().file(name).getAsFile(), script);
+            } else if (!scripts.containsKey(name)) {
+                // Restored from the configuration cache, the scripts are known from the configuration
+                return;
+            }
+            platform.getCppCompiler().setExecutable(directory.get().file(name).getAsFile().getAbsolutePath());
+        };
+    }
+
+    // Looked up like the tool chain does, on its own path first, otherwise left to the launcher
+    private static String compilerPathOf(GccCompatibleToolChain toolChain, String compiler) {
+        for (File path : toolChain.getPath()) {
+            final File candidate = new File(path, compiler);
+            if (candidate.isFile()) {
+                return candidate.getAbsolutePath();
+            }
+        }
+        return compiler;
+    }
+
+    // The compiler runs in the object directory of the compile task, the statistics log of ccache ends up next to the objects.
+    //   Without launcher the script only takes a slot of the budget, with a budget the compiler runs as a child of the script freeing the slot once it exits.
+    private String scriptOf(DefaultCompileFlagsExtension settings, String compiler, CompilerMemoryBudget.Parameters budget) {
+        final StringBuilder result = new StringBuilder("#!/bin/sh\n");
+        if (budget != null) {
+            result.append(CompilerMemoryBudget.slotOf(budget));
+        }
+        String command = quote(compiler);
+        if (settings != null) {
+            final String base = baseDirectory.getAbsolutePath();
+            final String cacheDirectory = quote(settings.getCompilerCacheDirectory().get().getAsFile().getAbsolutePath());
+            result.append("CCACHE_DIR=").append(cacheDirectory).append("\n")
+                    .append("CCACHE_BASEDIR=").append(quote(base)).append("\n")
+                    .append("CCACHE_NOHASHDIR=true\n")
+                    .append("CCACHE_STATSLOG=\"$PWD/" + STATISTICS_FILE_NAME + "\"\n")
+                    .append("SCCACHE_DIR=").append(cacheDirectory).append("\n")
+                    .append("export CCACHE_DIR CCACHE_BASEDIR CCACHE_NOHASHDIR CCACHE_STATSLOG SCCACHE_DIR\n");
+            command = quote(settings.getCompilerLauncher().get()) + " " + command + " " + quote("-fdebug-prefix-map=" + base + "=.");
+        }
+        return result.append(budget == null ? "exec " : "").append(command).append(" \"$@\"\n").toString();
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    // Written without looking at the previous script, the configuration cache would record the file as input otherwise
+    static void write(File file, String script) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), script.getBytes(StandardCharsets.UTF_8));
+            if (!file.setExecutable(true)) {
+                throw new IOException("Unable to make '" + file + "' executable");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.services.BuildServiceRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// The compile memory budget of the build, see CompileFlagsExtension#getCompileMemoryBudget().
+//   The budget is split into slots of the estimated peak RSS of a compiler, each compiler process of the build holds a slot while it runs.
+//   The compiler scripts (see CompilerLauncher) take a free slot before running the compiler and free it once it exits, the other compilers wait meanwhile.
+//   Gradle runs the compilers of a compile task in parallel without a way to limit them per task, hence the compilers take the slots rather than the tasks.
+//   I.e. a task runs as many compilers at once as there are free slots, whatever its translation units, and no task holds a slot while waiting for a worker.
+//   A slot is a symbolic link to the process id of the script holding it, created atomically, the slot of a killed script is taken over by the next compiler.
+//   Two compilers taking over the slot of the same killed script at once may both run, the slots are only freed by their script otherwise.
+//   The compilers of a bucket declaring a larger estimate take several slots (see CompileFlags#compilerMemoryEstimate(long)), all at once or none, so no compiler waits holding slots.
+//   Such a compiler waits for enough slots to be free at once, the compilers taking a single slot can delay it while they keep freeing and taking slots.
+//   The waiting compilers hold their Gradle worker, the tasks can't wait for the budget before running their compilers as explained above.
+public abstract class CompilerMemoryBudget implements BuildService<CompilerMemoryBudget.Parameters>, AutoCloseable {
+    private static final String NAME = "compilerMemoryBudget";
+    // Written by the compile task in its object directory, the working directory of its compilers, see UseCompilerMemoryBudget
+    static final String SLOTS_FILE_NAME = "compiler-memory-slots.txt";
+
+    interface Parameters extends BuildServiceParameters {
+        Property<Integer> getSlotCount();
+
+        // The estimated peak RSS of a compiler in megabytes, see CompileFlagsExtension#getCompilerMemoryEstimate()
+        Property<Long> getSlotSize();
+
+        DirectoryProperty getSlotsDirectory();
+    }
+
+    // Shared by all projects of the build, the first project declaring a budget registers it
+    static Provider<CompilerMemoryBudget> of(BuildServiceRegistry sharedServices, long budget, long compilerMemory, Provider<Directory> slotsDirectory) {
+        return sharedServices.registerIfAbsent(NAME, CompilerMemoryBudget.class, spec -> {
+            spec.getParameters().getSlotCount().set((int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / Math.max(1, compilerMemory))));
+            spec.getParameters().getSlotSize().set(Math.max(1, compilerMemory));
+            spec.getParameters().getSlotsDirectory().set(slotsDirectory);
+        });
+    }
+
+    // The parameters of the registered budget, i.e. possibly of another project
+    static Parameters parametersOf(BuildServiceRegistry sharedServices) {
+        return (Parameters) sharedServices.getRegistrations().getByName(NAME).getParameters();
+    }
+
+    // Created by the first compile task of the build, the compilers probed while configuring the tool chains released their slots.
+    //   Slots left by a previous build are dropped, their process id may have been reused since.
+    public CompilerMemoryBudget() {
+        delete(getParameters().getSlotsDirectory().get().getAsFile());
+    }
+
+    @Override
+    public void close() {
+        delete(getParameters().getSlotsDirectory().get().getAsFile());
+    }
+
+    // The slots taken by each compiler of a bucket with the given estimate, a single slot for the default estimate (0), all the slots at most
+    int slotsOf(long compilerMemoryEstimate) {
+        final long slotSize = getParameters().getSlotSize().get();
+        return (int) Math.max(1, Math.min(getParameters().getSlotCount().get(), (compilerMemoryEstimate + slotSize - 1) / slotSize));
+    }
+
+    // Shell script fragment taking the slots of the compiler for the rest of the script, see CompilerLauncher.
+    //   The slots count is read from the working directory, a compiler run outside of a compile task (e.g. probed by the tool chain) takes a single slot.
+    static String slotOf(Parameters parameters) {
+        final String slots = CompilerLauncher.quote(parameters.getSlotsDirectory().get().getAsFile().getAbsolutePath());
+        return "slots=" + slots + "\n"
+                + "mkdir -p \"$slots\"\n"
+                + "need=$(cat " + SLOTS_FILE_NAME + " 2>/dev/null) || need=1\n"
+                + "taken=\n"
+                + "trap 'for i in $taken; do rm -f \"$slots/$i\"; done' EXIT\n"
+                + "trap 'exit 129' HUP\n"
+                + "trap 'exit 130' INT\n"
+                + "trap 'exit 143' TERM\n"
+                + "while :; do\n"
+                + "    count=0\n"
+                + "    i=0\n"
+                + "    while [ \"$i\" -lt " + parameters.getSlotCount().get() + " ] && [ \"$count\" -lt \"$need\" ]; do\n"
+                + "        if ln -s \"$$\" \"$slots/$i\" 2>/dev/null; then\n"
+                + "            taken=\"$taken $i\"\n"
+                + "            count=$((count + 1))\n"
+                + "        else\n"
+                + "            holder=$(readlink \"$slots/$i\") && ! kill -0 \"$holder\" 2>/dev/null && rm -f \"$slots/$i\"\n"
+                + "        fi\n"
+                + "        i=$((i + 1))\n"
+                + "    done\n"
+                + "    [ \"$count\" -lt \"$need\" ] || break\n"
+                + "    for i in $taken; do rm -f \"$slots/$i\"; done\n"
+                + "    taken=\n"
+                + "    sleep 0.1 2>/dev/null || sleep 1\n"
+                + "done\n";
+    }
+
+    private static void delete(File directory) {
+        if (!directory.exists()) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,100 +1,136 @@
 import org.gradle.api.Action;
 import org.gradle.api.DomainObjectSet;
 import org.gradle.api.Named;
-import org.gradle.api.Transformer;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.FileSystemLocation;
-import org.gradle.api.file.FileTree;
+import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Exec;
 import org.gradle.api.tasks.Nested;
 import org.gradle.nativeplatform.platform.NativePlatform;
 import org.gradle.nativeplatform.toolchain.NativeToolChain;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.function.Function;
 
 abstract class DefaultCompileFlagsExtension implements CompileFlagsExtension {
-    private int nextEntry = 0;
+    private boolean finalized = false;
     private final ObjectFactory objects;
-    private FileTree defaultSources;
-    private final Map<File, SingleSourceFileBucket> entries = new HashMap<>();
+    private final ProviderFactory providers;
+    private final ProjectLayout layout;
+    private final Set<String> bucketNames = new HashSet<>();
+    private final SourceSpecMatcher matcher;
+    private final SourcePartition partition;
+    private final FlagSets flagSets = new FlagSets();
+    private final Map<File, SingleSourceFileBucket> entries = new LinkedHashMap<>();
+    // The source specs by matcher index
+    private final List<SourceFilterSpec> specs = new ArrayList<>();
+    private final List<Spec<? super File>> unityExclusions = new ArrayList<>();
+    private final List<Action<? super Exec>> profileTrainings = new ArrayList<>();
     public DomainObjectSet<SourceFilterSpec> sourceSpecs;
 
     @Inject
-    public DefaultCompileFlagsExtension(ObjectFactory objects, FileCollection source) {
+    public DefaultCompileFlagsExtension(ObjectFactory objects, ProviderFactory providers, ProjectLayout layout, FileCollection source, Provider<SourceAssignments> assignments) {
         this.objects = objects;
-        this.defaultSources = memoize(source).getAsFileTree();
+        this.providers = providers;
+        this.layout = layout;
+        this.matcher = new SourceSpecMatcher(layout.getProjectDirectory().getAsFile());
+        this.partition = new SourcePartition(source, matcher, assignments, objects, providers, layout.getBuildDirectory().dir("source-assignments"));
         this.sourceSpecs = objects.domainObjectSet(SourceFilterSpec.class);
-        getCppSource().from((Callable<?>) () -> defaultSources);
+        getCppSource().from(partition.defaultSources());
 
-        getSourceCompileFlags().all(bucket -> {
-            bucket.getIdentifier().value("sources" + nextEntry++).disallowChanges();
-            bucket.getAdditionalCompileFlags().compileInformation.set(bucket.getCompilationInformation());
-        });
-    }
+        getCoalesceIdenticalFlags().convention(false);
+        getShareIdenticalCompilations().convention(false);
+        getInstrumentCompilation().convention(false);
+        getDefaultBucketHashShards().convention(1);
+        getScheduleLongestFirst().convention(false);
+        getCompilerCacheDirectory().convention(layout.getProjectDirectory().dir(".gradle/compiler-cache"));
+        getCompilerMemoryEstimate().convention(1024L);
 
-    private FileCollection memoize(FileCollection s) {
-        SetProperty<FileSystemLocation> result = objects.setProperty(FileSystemLocation.class);
-        result.value(s.getElements()).finalizeValueOnRead();
-        return objects.fileCollection().from(result);
+        getSourceCompileFlags().all(bucket -> bucket.getIdentifier().disallowChanges());
     }
 
     public abstract ConfigurableFileCollection getCppSource();
 
+    // Sources of the given shard of the default bucket, see getDefaultBucketHashShards().
+    public FileCollection getCppSource(int shard) {
+        final int shardCount = getDefaultBucketHashShardCount();
+        if (shardCount == 1) {
+            return getCppSource();
+        }
+        return partition.defaultSources(shard, shardCount);
+    }
+
+    public int getDefaultBucketHashShardCount() {
+        return Math.max(1, getDefaultBucketHashShards().get());
+    }
+
     public CompileFlags forSource(Spec<? super File> filterAction) {
+        // Evaluated as soon as it's added once finalized, i.e. before the flags chained to this call
+        if (finalized) {
+            throw new IllegalStateException("Cannot declare the compile flags of source spec '" + filterAction + "' once the compile tasks of the component are created, declare them while configuring the component.");
+        }
         SourceFilterSpec specEntry = objects.newInstance(SourceFilterSpec.class, filterAction);
+        specEntry.index = matcher.add(filterAction);
+        specs.add(specEntry);
         sourceSpecs.add(specEntry);
+        return specEntry.getAdditionalCompileFlags();
+    }
 
-        // Add additional compile flags to matching single source bucket
-        getSourceCompileFlags().withType(SingleSourceFileBucket.class).all(new Action<>() {
-            @Override
-            public void execute(SingleSourceFileBucket entry) {
-                entry.getAdditionalCompileFlags().addAll(entry.getCppSourceFile()
-                        .map(asFile())
-                        .map(filter(negate(specEntry.filterAction)))
-                        .map(toConstant(Collections.<String>emptySet()))
-                        .orElse(specEntry.getAdditionalCompileFlags().toProvider()));
-            }
+    @Override
+    public CompileFlags forSourceMatching(String... patterns) {
+        return forSource(new SourcePatterns(layout.getProjectDirectory().getAsFile(), Arrays.asList(patterns)));
+    }
 
-            private /*static*/ Transformer<File, FileSystemLocation> asFile() {
-                return FileSystemLocation::getAsFile;
-            }
+    @Override
+    public void excludeFromUnity(Spec<? super File> spec) {
+        unityExclusions.add(spec);
+    }
 
-            // Adapt Predicate#negate() to Gradle Spec
-            private /*static*/ <T> Spec<T> negate(Spec<? super T> spec) {
-                return it -> !spec.isSatisfiedBy(it);
-            }
+    @Override
+    public void excludeFromUnity(String... patterns) {
+        excludeFromUnity(new SourcePatterns(layout.getProjectDirectory().getAsFile(), Arrays.asList(patterns)));
+    }
 
-            private /*static*/ <OUT, IN> Transformer<OUT, IN> toConstant(OUT value) {
-                return __ -> value;
-            }
+    @Override
+    public void trainProfile(Action<? super Exec> action) {
+        profileTrainings.add(action);
+    }
 
-            // Backport of Provider#filter(Spec)
-            private /*static*/ <T> Transformer<T, T> filter(Spec<? super T> spec) {
-                return it -> {
-                    if (spec.isSatisfiedBy(it)) {
-                        return it;
-                    } else {
-                        return null;
-                    }
-                };
-            }
-        });
-        return specEntry.getAdditionalCompileFlags();
+    public void configureProfileTraining(Exec task) {
+        profileTrainings.forEach(it -> it.execute(task));
+    }
+
+    public boolean isUnityEnabled() {
+        return getUnityBatchSize().getOrElse(0) > 1;
+    }
+
+    public Spec<File> getUnityExclusions() {
+        return new ExcludedFromUnity(unityExclusions);
     }
 
     public CompileFlags forSource(File file) {
@@ -103,46 +139,260 @@ abstract class DefaultCompileFlagsExtension implements CompileFlagsExtension {
     }
 
     private SingleSourceFileBucket bucketFor(File file) {
-        return entries.computeIfAbsent(file, new Function<>() {
-            @Override
-            public SingleSourceFileBucket apply(File __) {
-                final SingleSourceFileBucket result = objects.newInstance(SingleSourceFileBucket.class);
-                final FileCollection cppSource = DefaultCompileFlagsExtension.this.memoize(defaultSources.filter(file::equals));
-                result.getCppSourceFile().fileProvider(singleFile(cppSource));
-                DefaultCompileFlagsExtension.this.defaultSources = DefaultCompileFlagsExtension.this.memoize(defaultSources.minus(cppSource)).getAsFileTree();
-                DefaultCompileFlagsExtension.this.getSourceCompileFlags().add(result);
-                return result;
+        // The flags of the file buckets are evaluated from finalization on, a later call would be silently ignored
+        if (finalized) {
+            throw new IllegalStateException("Cannot declare the compile flags of source file '" + file + "' once the compile tasks of the component are created, declare them while configuring the component.");
+        }
+        // Buckets are only added on finalize as the coalescing mode can be enabled after the first forSource(File) call
+        return entries.computeIfAbsent(file, __ -> objects.newInstance(SingleSourceFileBucket.class));
+    }
+
+    // Idempotent, called when the first binary of the component is realized.
+    //   The flags of the coalesced and spec buckets are evaluated here, against the compile information of that binary.
+    public void finalizeExtension(CompileInformation compileInformation) {
+        if (finalized) {
+            return;
+        }
+        finalized = true;
+
+        getCoalesceIdenticalFlags().finalizeValue();
+        getShareIdenticalCompilations().finalizeValue();
+        getUnityBatchSize().finalizeValue();
+        getInstrumentCompilation().finalizeValue();
+        getDefaultBucketHashShards().finalizeValue();
+        getScheduleLongestFirst().finalizeValue();
+        getProfile().finalizeValue();
+        getCompilerLauncher().finalizeValue();
+        getCompilerCacheDirectory().finalizeValue();
+        getCompileMemoryBudget().finalizeValue();
+        getCompilerMemoryEstimate().finalizeValue();
+        // Until the bucket's own compile information is set, the build script's flags may query it, see CompileFlags#getToolChain()
+        entries.values().forEach(entry -> entry.getAdditionalCompileFlags().compileInformation.convention(compileInformation));
+        specs.forEach(spec -> spec.getAdditionalCompileFlags().compileInformation.convention(compileInformation));
+        // The flags decide the buckets and their compile tasks from here on, a later change (e.g. in afterEvaluate) fails instead of being ignored
+        entries.values().forEach(entry -> entry.getAdditionalCompileFlags().disallowChanges());
+        specs.forEach(spec -> spec.getAdditionalCompileFlags().disallowChanges());
+        if (getCoalesceIdenticalFlags().get()) {
+            coalesceSourceFileBuckets();
+        } else {
+            entries.forEach(this::addSourceFileBucket);
+        }
+
+        // Source specs with the same fingerprint share a bucket, as opposed to being disambiguated by declaration order.
+        //   Changing the flags of a spec only moves its own sources, the bucket of the other specs keeps its name hence its outputs.
+        final Map<List<String>, SourceSpecBucket> specBuckets = new HashMap<>();
+        sourceSpecs.all(spec -> {
+            final DefaultCompileFlags specFlags = spec.getAdditionalCompileFlags();
+            specFlags.compileInformation.convention(compileInformation);
+            final FlagSets.FlagSet flagSet = flagSetOf(spec);
+            final List<String> fingerprint = fingerprintOf(flagSet);
+            SourceSpecBucket bucket = specBuckets.get(fingerprint);
+            final boolean added = bucket == null;
+            if (added) {
+                bucket = objects.newInstance(SourceSpecBucket.class);
+                bucket.getIdentifier().value(uniqueBucketName("sources", fingerprint));
+                bucket.getCppSourceFiles().from(partition.sourcesOf(bucket));
+                bucket.flagSet = flagSet;
+                specBuckets.put(fingerprint, bucket);
             }
+            partition.assign(spec.index, bucket);
+            specFlags.compileInformation.set(bucket.getCompilationInformation());
+            if (added) {
+                getSourceCompileFlags().add(bucket);
+            }
+        });
+    }
+
+    private void addSourceFileBucket(File file, SingleSourceFileBucket bucket) {
+        // Only the path identifies the bucket so flag changes keep the same task and output directory
+        bucket.getIdentifier().value(uniqueBucketName("sources", Collections.singletonList(relativePathOf(file))));
+        partition.assign(file, bucket);
+        bucket.getCppSourceFile().fileProvider(singleFile(partition.sourcesOf(bucket)));
+        bucket.extension = this;
+        bucket.file = file;
+        bucket.getAdditionalCompileFlags().compileInformation.set(bucket.getCompilationInformation());
+        getSourceCompileFlags().add(bucket);
+    }
 
-            private /*static*/ Provider<File> singleFile(FileCollection target) {
-                return target.getElements().map(it -> {
-                    final Iterator<FileSystemLocation> iter = it.iterator();
-                    if (!iter.hasNext()) {
-                        return null;
-                    }
-                    final File sourceFile = iter.next().getAsFile();
-                    assert !iter.hasNext() : "expect only one file match";
-                    return sourceFile;
-                });
+    private static Provider<File> singleFile(FileCollection target) {
+        return target.getElements().map(it -> {
+            final Iterator<FileSystemLocation> iter = it.iterator();
+            if (!iter.hasNext()) {
+                return null;
             }
+            final File sourceFile = iter.next().getAsFile();
+            assert !iter.hasNext() : "expect only one file match";
+            return sourceFile;
         });
     }
 
-    public void finalizeExtension() {
-        sourceSpecs.all(spec -> {
-            final SourceSpecBucket result = objects.newInstance(SourceSpecBucket.class );
-            final FileCollection cppSource = memoize(defaultSources.filter(spec.filterAction));
-            result.getCppSourceFiles().from(cppSource);
-            this.defaultSources = memoize(defaultSources.minus(cppSource)).getAsFileTree();
-            getSourceCompileFlags().add(result);
+    // Group the single source file buckets by their effective flags, i.e. its own flags and the flags of all matching source specs.
+    //   Each distinct flag set becomes a single bucket, hence a single compile task, named after the flag set.
+    private void coalesceSourceFileBuckets() {
+        final Map<List<String>, FlagSetBucket> buckets = new LinkedHashMap<>();
+        entries.forEach((file, entry) -> {
+            final FlagSets.FlagSet flagSet = flagSetOf(file, entry);
+            final List<String> key = fingerprintOf(flagSet);
+            final FlagSetBucket bucket = buckets.computeIfAbsent(key, __ -> {
+                final FlagSetBucket result = objects.newInstance(FlagSetBucket.class);
+                result.getIdentifier().value(uniqueBucketName("flags", key));
+                result.flagSet = flagSet;
+                return result;
+            });
+            partition.assign(file, bucket);
+            entry.getAdditionalCompileFlags().compileInformation.set(bucket.getCompilationInformation());
         });
+
+        buckets.values().forEach(bucket -> {
+            bucket.getCppSourceFiles().from(partition.sourcesOf(bucket));
+            getSourceCompileFlags().add(bucket);
+        });
+    }
+
+    // Everything changing the compilation of a translation unit besides its sources and headers, i.e. its effective flags and compilation options.
+    //   Buckets other than single source buckets are keyed (and named) by fingerprint, so a translation unit only changes compile task, hence only recompiles, when its own fingerprint changes.
+    private List<String> fingerprintOf(FlagSets.FlagSet flagSet) {
+        final List<String> result = new ArrayList<>(flagSet.getFlags());
+        if (flagSet.getPrecompiledHeader() != null) {
+            result.add("#pch " + relativePathOf(flagSet.getPrecompiledHeader()));
+        }
+        if (flagSet.isProfileGuided()) {
+            result.add("#pgo");
+        }
+        if (flagSet.isLinkTimeOptimized()) {
+            result.add("#lto");
+        }
+        if (flagSet.getCompilerMemoryEstimate() > 0) {
+            result.add("#memory " + flagSet.getCompilerMemoryEstimate());
+        }
+        return result;
+    }
+
+    // The file's own flags then the flags of each matching source spec, normalized as a deduplicated list in declaration order as flag order can matter to the compiler.
+    //   The precompiled header is the file's own, or else, the one of the first matching spec declaring one, the optimizations are enabled by the file or any matching spec.
+    //   The compiler memory estimate is the largest declared by the file and the matching specs.
+    //   Evaluated once per bucket, when its compile tasks are registered (on finalize when coalescing), only visiting the matching specs.
+    private FlagSets.FlagSet flagSetOf(File file, SingleSourceFileBucket entry) {
+        final DefaultCompileFlags fileFlags = entry.getAdditionalCompileFlags();
+        final Set<String> flags = new LinkedHashSet<>(fileFlags.toProvider().get());
+        File precompiledHeader = fileFlags.precompiledHeader;
+        boolean profileGuided = fileFlags.profileGuided;
+        boolean linkTimeOptimized = fileFlags.linkTimeOptimized;
+        long compilerMemoryEstimate = fileFlags.compilerMemoryEstimate;
+        final BitSet matches = matcher.matchesOf(file);
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            final FlagSets.FlagSet specFlagSet = flagSetOf(specs.get(i));
+            flags.addAll(specFlagSet.getFlags());
+            if (precompiledHeader == null) {
+                precompiledHeader = specFlagSet.getPrecompiledHeader();
+            }
+            profileGuided |= specFlagSet.isProfileGuided();
+            linkTimeOptimized |= specFlagSet.isLinkTimeOptimized();
+            compilerMemoryEstimate = Math.max(compilerMemoryEstimate, specFlagSet.getCompilerMemoryEstimate());
+        }
+        return flagSets.intern(flags, precompiledHeader, profileGuided, linkTimeOptimized, compilerMemoryEstimate);
+    }
+
+    // Evaluated once, the flags of a spec are added to the flags of each file bucket it matches
+    private synchronized FlagSets.FlagSet flagSetOf(SourceFilterSpec spec) {
+        if (spec.flagSet == null) {
+            final DefaultCompileFlags specFlags = spec.getAdditionalCompileFlags();
+            spec.flagSet = flagSets.intern(specFlags.toProvider().get(), specFlags.precompiledHeader, specFlags.profileGuided, specFlags.linkTimeOptimized, specFlags.compilerMemoryEstimate);
+        }
+        return spec.flagSet;
+    }
+
+    // Bucket names are derived from their content (relative source path or flags), as opposed to their declaration order.
+    //   The task names and object directories of unrelated buckets are stable when the DSL changes, keeping their outputs up-to-date and cacheable.
+    private String uniqueBucketName(String prefix, List<String> content) {
+        String result = prefix + hashOf(content);
+        for (int i = 1; !bucketNames.add(result); ++i) {
+            // Content collision, e.g. a source path equal to a spec flag, disambiguate by order
+            final List<String> disambiguatedContent = new ArrayList<>(content);
+            disambiguatedContent.add("#" + i);
+            result = prefix + hashOf(disambiguatedContent);
+        }
+        return result;
+    }
+
+    private String relativePathOf(File file) {
+        return SourcePatterns.relativePathOf(layout.getProjectDirectory().getAsFile(), file);
+    }
+
+    // Capitalized to be part of task names, see digestOf
+    static String hashOf(Iterable<String> flags) {
+        return capitalize(digestOf(flags));
+    }
+
+    // The first 8 lowercase hex digits of the SHA-256 of the flags
+    static String digestOf(Iterable<String> flags) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String flag : flags) {
+                digest.update(flag.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            final StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+                if (builder.length() >= 8) {
+                    break;
+                }
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
     }
 
     public abstract DomainObjectSet<CompileFlagsBucket> getSourceCompileFlags();
 
+    @Override
+    public abstract Property<Boolean> getCoalesceIdenticalFlags();
+
+    @Override
+    public abstract Property<Boolean> getShareIdenticalCompilations();
+
+    @Override
+    public abstract Property<Integer> getUnityBatchSize();
+
+    @Override
+    public abstract Property<Integer> getDefaultBucketHashShards();
+
+    @Override
+    public abstract Property<Boolean> getScheduleLongestFirst();
+
+    @Override
+    public abstract Property<Boolean> getInstrumentCompilation();
+
+    @Override
+    public abstract DirectoryProperty getProfile();
+
+    @Override
+    public abstract Property<String> getCompilerLauncher();
+
+    @Override
+    public abstract DirectoryProperty getCompilerCacheDirectory();
+
+    @Override
+    public abstract Property<Long> getCompileMemoryBudget();
+
+    @Override
+    public abstract Property<Long> getCompilerMemoryEstimate();
+
     public static class DefaultCompileFlags implements CompileFlags {
         private final SetProperty<String> additionalCompileFlags;
         private final Property<CompileInformation> compileInformation;
+        // Plain fields, every file bucket has its own flags, only read once the extension is finalized
+        private File precompiledHeader = null;
+        private boolean profileGuided = false;
+        private boolean linkTimeOptimized = false;
+        private long compilerMemoryEstimate = 0;
+        private boolean changesDisallowed = false;
 
         @Inject
         public DefaultCompileFlags(ObjectFactory objects) {
@@ -154,33 +404,73 @@ abstract class DefaultCompileFlagsExtension implements CompileFlagsExtension {
             return additionalCompileFlags;
         }
 
+        // The flags providers added so far are still evaluated lazily, when the flag set of the bucket is computed
+        void disallowChanges() {
+            changesDisallowed = true;
+            additionalCompileFlags.disallowChanges();
+        }
+
+        private DefaultCompileFlags mutable() {
+            if (changesDisallowed) {
+                throw new IllegalStateException("Cannot change the compile flags once the compile tasks of the component are created, declare them while configuring the component.");
+            }
+            return this;
+        }
+
         @Override
         public CompileFlags add(String item) {
-            additionalCompileFlags.add(item);
+            mutable().additionalCompileFlags.add(item);
             return this;
         }
 
         @Override
         public CompileFlags add(Provider<? extends String> item) {
-            additionalCompileFlags.add(item);
+            mutable().additionalCompileFlags.add(item);
             return this;
         }
 
         @Override
         public CompileFlags addAll(String... items) {
-            additionalCompileFlags.addAll(items);
+            mutable().additionalCompileFlags.addAll(items);
             return this;
         }
 
         @Override
         public CompileFlags addAll(Iterable<? extends String> items) {
-            additionalCompileFlags.addAll(items);
+            mutable().additionalCompileFlags.addAll(items);
             return this;
         }
 
         @Override
         public CompileFlags addAll(Provider<? extends Iterable<? extends String>> items) {
-            additionalCompileFlags.addAll(items);
+            mutable().additionalCompileFlags.addAll(items);
+            return this;
+        }
+
+        @Override
+        public CompileFlags precompiledHeader(File header) {
+            mutable().precompiledHeader = header;
+            return this;
+        }
+
+        @Override
+        public CompileFlags optimizeWithProfile() {
+            mutable().profileGuided = true;
+            return this;
+        }
+
+        @Override
+        public CompileFlags linkTimeOptimization() {
+            mutable().linkTimeOptimized = true;
+            return this;
+        }
+
+        @Override
+        public CompileFlags compilerMemoryEstimate(long megabytes) {
+            if (megabytes <= 0) {
+                throw new IllegalArgumentException("The compiler memory estimate must be positive, got " + megabytes + " MB.");
+            }
+            mutable().compilerMemoryEstimate = megabytes;
             return this;
         }
 
@@ -205,20 +495,66 @@ abstract class DefaultCompileFlagsExtension implements CompileFlagsExtension {
 
         Property<CompileInformation> getCompilationInformation();
 
-        @Nested
-        DefaultCompileFlags getAdditionalCompileFlags();
+        // Effective flags and compilation options of the bucket, an interned snapshot shared by all buckets compiling the same way
+        FlagSets.FlagSet getFlagSet();
+
+        // The flags of the flag set, a provider is only created for the compile tasks actually realized
+        Provider<List<String>> getCompileFlags();
     }
 
-    public static abstract class SingleSourceFileBucket implements CompileFlagsBucket {
+    // A plain field instead of a property or a provider per bucket, large components have thousands of buckets
+    public static abstract class AbstractCompileFlagsBucket implements CompileFlagsBucket {
+        FlagSets.FlagSet flagSet;
+
+        @Inject
+        protected abstract ProviderFactory getProviders();
+
+        @Override
+        public FlagSets.FlagSet getFlagSet() {
+            return flagSet;
+        }
+
+        @Override
+        public Provider<List<String>> getCompileFlags() {
+            return getProviders().provider(() -> getFlagSet().getFlags());
+        }
+    }
+
+    public static abstract class SingleSourceFileBucket extends AbstractCompileFlagsBucket {
+        private DefaultCompileFlagsExtension extension;
+        private File file;
+
         public abstract RegularFileProperty getCppSourceFile();
 
+        // Evaluated on first use, i.e. when the compile tasks of the bucket are registered
+        @Override
+        public synchronized FlagSets.FlagSet getFlagSet() {
+            if (flagSet == null) {
+                flagSet = extension.flagSetOf(file, this);
+            }
+            return flagSet;
+        }
+
+        // The flags declared for the file, as returned to the build script
+        @Nested
+        public abstract DefaultCompileFlags getAdditionalCompileFlags();
+
         @Override
         public Object getCppSource() {
             return getCppSourceFile().map(Collections::singletonList).orElse(Collections.emptyList());
         }
     }
 
-    public static abstract class SourceSpecBucket implements CompileFlagsBucket {
+    public static abstract class SourceSpecBucket extends AbstractCompileFlagsBucket {
+        public abstract ConfigurableFileCollection getCppSourceFiles();
+
+        @Override
+        public Object getCppSource() {
+            return getCppSourceFiles();
+        }
+    }
+
+    public static abstract class FlagSetBucket extends AbstractCompileFlagsBucket {
         public abstract ConfigurableFileCollection getCppSourceFiles();
 
         @Override
@@ -229,6 +565,8 @@ abstract class DefaultCompileFlagsExtension implements CompileFlagsExtension {
 
     public static abstract class SourceFilterSpec {
         private final Spec<? super File> filterAction;
+        private int index;
+        private FlagSets.FlagSet flagSet = null;
 
         @Inject
         public SourceFilterSpec(Spec<? super File> filterAction) {
@@ -238,4 +576,23 @@ abstract class DefaultCompileFlagsExtension implements CompileFlagsExtension {
         @Nested
         public abstract DefaultCompileFlags getAdditionalCompileFlags();
     }
+
+    // Not a lambda, the configuration cache serializes the filter along with the unity sources
+    private static final class ExcludedFromUnity implements Spec<File> {
+        private final List<Spec<? super File>> exclusions;
+
+        ExcludedFromUnity(List<Spec<? super File>> exclusions) {
+            this.exclusions = exclusions;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(File file) {
+            for (Spec<? super File> spec : exclusions) {
+                if (spec.isSatisfiedBy(file)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,82 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Interns the flag sets of the buckets as shared immutable snapshots, along with the flags themselves.
+//   Large components have thousands of buckets but only a handful of distinct flag sets, built from a handful of distinct flags.
+//   Synchronized as the snapshots are queried by the compile tasks, possibly in parallel.
+final class FlagSets {
+    private final Map<String, String> flags = new HashMap<>();
+    private final Map<List<String>, List<String>> sets = new HashMap<>();
+    private final Map<FlagSet, FlagSet> flagSets = new HashMap<>();
+
+    synchronized List<String> intern(Collection<String> values) {
+        final List<String> result = new ArrayList<>(values.size());
+        for (String value : values) {
+            result.add(flags.computeIfAbsent(value, it -> it));
+        }
+        return sets.computeIfAbsent(result, Collections::unmodifiableList);
+    }
+
+    synchronized FlagSet intern(Collection<String> values, File precompiledHeader, boolean profileGuided, boolean linkTimeOptimized, long compilerMemoryEstimate) {
+        final FlagSet result = new FlagSet(intern(values), precompiledHeader, profileGuided, linkTimeOptimized, compilerMemoryEstimate);
+        return flagSets.computeIfAbsent(result, it -> it);
+    }
+
+    // Effective flags and compilation options of a bucket, the precompiled header is null when none is used, the compiler memory estimate is 0 when not declared
+    static final class FlagSet {
+        private final List<String> flags;
+        private final File precompiledHeader;
+        private final boolean profileGuided;
+        private final boolean linkTimeOptimized;
+        private final long compilerMemoryEstimate;
+
+        private FlagSet(List<String> flags, File precompiledHeader, boolean profileGuided, boolean linkTimeOptimized, long compilerMemoryEstimate) {
+            this.flags = flags;
+            this.precompiledHeader = precompiledHeader;
+            this.profileGuided = profileGuided;
+            this.linkTimeOptimized = linkTimeOptimized;
+            this.compilerMemoryEstimate = compilerMemoryEstimate;
+        }
+
+        List<String> getFlags() {
+            return flags;
+        }
+
+        File getPrecompiledHeader() {
+            return precompiledHeader;
+        }
+
+        boolean isProfileGuided() {
+            return profileGuided;
+        }
+
+        boolean isLinkTimeOptimized() {
+            return linkTimeOptimized;
+        }
+
+        long getCompilerMemoryEstimate() {
+            return compilerMemoryEstimate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlagSet)) {
+                return false;
+            }
+            final FlagSet other = (FlagSet) o;
+            return flags.equals(other.flags) && Objects.equals(precompiledHeader, other.precompiledHeader)
+                    && profileGuided == other.profileGuided && linkTimeOptimized == other.linkTimeOptimized && compilerMemoryEstimate == other.compilerMemoryEstimate;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(flags, precompiledHeader, profileGuided, linkTimeOptimized, compilerMemoryEstimate);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Writes a compilation database (compile_commands.json) covering every compile task of a binary.
+//   Each compile task is rendered into its own fragment which is only rewritten when the task's flags or sources change.
+//   The fragments are then streamed into the final database.
+@CacheableTask
+public abstract class GenerateCompilationDatabase extends DefaultTask {
+    @Nested
+    public abstract ListProperty<CompileTaskEntry> getCompileTasks();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getFragmentsDirectory();
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputFile();
+
+    @TaskAction
+    public void doGenerate() throws IOException {
+        final File fragmentsDirectory = getFragmentsDirectory().get().getAsFile();
+        final List<File> fragments = new ArrayList<>();
+        for (CompileTaskEntry entry : getCompileTasks().get()) {
+            final File fragment = new File(fragmentsDirectory, entry.getName().get() + ".json");
+            final File fingerprint = new File(fragmentsDirectory, entry.getName().get() + ".sha256");
+            final String hash = entry.hash();
+            if (!fragment.exists() || !fingerprint.exists() || !hash.equals(new String(Files.readAllBytes(fingerprint.toPath()), StandardCharsets.UTF_8))) {
+                try (Writer writer = Files.newBufferedWriter(fragment.toPath(), StandardCharsets.UTF_8)) {
+                    entry.writeTo(writer);
+                }
+                Files.write(fingerprint.toPath(), hash.getBytes(StandardCharsets.UTF_8));
+            }
+            fragments.add(fragment);
+        }
+
+        final Set<String> fragmentNames = new HashSet<>();
+        for (File fragment : fragments) {
+            fragmentNames.add(fragment.getName());
+            fragmentNames.add(fragment.getName().replace(".json", ".sha256"));
+        }
+        final File[] staleFiles = fragmentsDirectory.listFiles(it -> !fragmentNames.contains(it.getName()));
+        if (staleFiles != null) {
+            for (File staleFile : staleFiles) {
+                Files.delete(staleFile.toPath());
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(getOutputFile().get().getAsFile().toPath(), StandardCharsets.UTF_8)) {
+            writer.write("[");
+            boolean first = true;
+            for (File fragment : fragments) {
+                if (fragment.length() == 0) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write(",");
+                }
+                first = false;
+                writer.newLine();
+                try (Reader reader = Files.newBufferedReader(fragment.toPath(), StandardCharsets.UTF_8)) {
+                    reader.transferTo(writer);
+                }
+            }
+            writer.newLine();
+            writer.write("]");
+            writer.newLine();
+        }
+    }
+
+    static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"': writer.write("\\\""); break;
+                case '\\': writer.write("\\\\"); break;
+                case '\n': writer.write("\\n"); break;
+                case '\r': writer.write("\\r"); break;
+                case '\t': writer.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    public static abstract class CompileTaskEntry {
+        @Input
+        public abstract Property<String> getName();
+
+        @Input
+        public abstract Property<String> getDirectory();
+
+        @Input
+        public abstract Property<String> getCompiler();
+
+        @Input
+        public abstract Property<Boolean> getVisualCpp();
+
+        @Input
+        public abstract ListProperty<String> getCompilerArgs();
+
+        @Input
+        public abstract ListProperty<String> getIncludePaths();
+
+        @Input
+        public abstract ListProperty<String> getSystemIncludePaths();
+
+        // Only the paths matters, no need to fingerprint the source content
+        @Input
+        public abstract ListProperty<String> getSourcePaths();
+
+        private List<String> argumentsFor(String sourcePath) {
+            final boolean visualCpp = getVisualCpp().get();
+            final List<String> result = new ArrayList<>();
+            result.add(getCompiler().get());
+            result.addAll(getCompilerArgs().get());
+            for (String path : getIncludePaths().get()) {
+                result.add((visualCpp ? "/I" : "-I") + path);
+            }
+            for (String path : getSystemIncludePaths().get()) {
+                if (visualCpp) {
+                    result.add("/I" + path);
+                } else {
+                    result.add("-isystem");
+                    result.add(path);
+                }
+            }
+            result.add(visualCpp ? "/c" : "-c");
+            result.add(sourcePath);
+            return result;
+        }
+
+        private void writeTo(Writer writer) throws IOException {
+            boolean first = true;
+            for (String sourcePath : getSourcePaths().get()) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                first = false;
+                writer.write("  {\"directory\": ");
+                writeString(writer, getDirectory().get());
+                writer.write(", \"file\": ");
+                writeString(writer, sourcePath);
+                writer.write(", \"arguments\": [");
+                boolean firstArgument = true;
+                for (String argument : argumentsFor(sourcePath)) {
+                    if (!firstArgument) {
+                        writer.write(", ");
+                    }
+                    firstArgument = false;
+                    writeString(writer, argument);
+                }
+                writer.write("]}");
+            }
+        }
+
+        private String hash() {
+            try {
+                final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                update(digest, getDirectory().get());
+                update(digest, getCompiler().get());
+                update(digest, getVisualCpp().get().toString());
+                for (List<String> values : List.of(getCompilerArgs().get(), getIncludePaths().get(), getSystemIncludePaths().get(), getSourcePaths().get())) {
+                    update(digest, String.valueOf(values.size()));
+                    for (String value : values) {
+                        update(digest, value);
+                    }
+                }
+                final StringBuilder builder = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    builder.append(String.format("%02x", b));
+                }
+                return builder.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static void update(MessageDigest digest, String value) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Installs the script wrapping the compiler proper of GCC-compatible toolchains, see compile-time-wrapper.sh.
+//   The script is part of the plugin, hence the task has no inputs besides the plugin classpath.
+@CacheableTask
+public abstract class GenerateCompileTimeWrapper extends DefaultTask {
+    static final String SCRIPT_NAME = "compile-time-wrapper.sh";
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputFile();
+
+    @TaskAction
+    public void doGenerate() throws IOException {
+        try (InputStream script = GenerateCompileTimeWrapper.class.getResourceAsStream("/" + SCRIPT_NAME)) {
+            if (script == null) {
+                throw new IllegalStateException("Missing '" + SCRIPT_NAME + "' from the plugin resources");
+            }
+            Files.copy(script, getOutputFile().get().getAsFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
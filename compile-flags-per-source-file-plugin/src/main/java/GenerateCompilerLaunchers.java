@@ -0,0 +1,26 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.util.Map;
+
+// Restores the compiler launcher scripts before the compile tasks run, e.g. after `clean` with a reused configuration cache, see CompilerLauncher.
+public abstract class GenerateCompilerLaunchers extends DefaultTask {
+    // Script path, relative to the output directory, to its content
+    @Input
+    public abstract MapProperty<String, String> getScripts();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    @TaskAction
+    public void doGenerate() {
+        for (Map.Entry<String, String> script : getScripts().get().entrySet()) {
+            CompilerLauncher.write(new File(getOutputDirectory().get().getAsFile(), script.getKey()), script.getValue());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Writes the stub including a precompiled header, the header is precompiled through it rather than as the main file.
+//   GCC warns about the #pragma once of a header compiled as the main file, the header is only ever included this way.
+public abstract class GeneratePrecompiledHeaderStub extends DefaultTask {
+    // Relative to the stub, to keep the precompile task relocatable
+    @Input
+    public abstract Property<String> getIncludePath();
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputFile();
+
+    @TaskAction
+    public void doGenerate() throws IOException {
+        Files.write(getOutputFile().get().getAsFile().toPath(), ("#include \"" + getIncludePath().get() + "\"\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,93 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Generates unity (jumbo) translation units, each including up to batch size sources.
+//   Batches are formed over the sorted relative paths and also split wherever a path hash hits a boundary.
+//   Adding or removing a source only reshapes the neighbouring batches, editing a source only invalidates its own batch.
+public abstract class GenerateUnitySources extends DefaultTask {
+    // Also carries the dependencies on the tasks generating sources
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSources();
+
+    @Input
+    public abstract Property<Integer> getBatchSize();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    // The include paths written to the unity sources, the file names alone (see getSources()) don't tell the batches apart
+    @Input
+    protected List<String> getSourcePaths() {
+        final Path outputDirectory = getOutputDirectory().get().getAsFile().toPath();
+        return getSources().getFiles().stream()
+                .map(it -> outputDirectory.relativize(it.toPath()).toString().replace(File.separatorChar, '/'))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @TaskAction
+    public void doGenerate() throws IOException {
+        final File outputDirectory = getOutputDirectory().get().getAsFile();
+        final File[] staleFiles = outputDirectory.listFiles();
+        if (staleFiles != null) {
+            for (File staleFile : staleFiles) {
+                Files.delete(staleFile.toPath());
+            }
+        }
+
+        // Named after the digest of the first path so the unaffected batches keep their objects.
+        //   A batch whose name is already taken is disambiguated by order, the batches are generated in path order.
+        final Set<String> fileNames = new HashSet<>();
+        for (List<String> batch : batchesOf(getSourcePaths(), getBatchSize().get())) {
+            String fileName = "unity_" + DefaultCompileFlagsExtension.digestOf(batch.subList(0, 1)) + ".cpp";
+            for (int i = 1; !fileNames.add(fileName); ++i) {
+                fileName = "unity_" + DefaultCompileFlagsExtension.digestOf(Arrays.asList(batch.get(0), "#" + i)) + ".cpp";
+            }
+
+            final StringBuilder builder = new StringBuilder();
+            builder.append("// Generated unity translation unit, do not edit").append('\n');
+            for (String path : batch) {
+                builder.append("#include \"").append(path).append("\"").append('\n');
+            }
+            Files.write(new File(outputDirectory, fileName).toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<List<String>> batchesOf(List<String> paths, int batchSize) {
+        final List<List<String>> result = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        for (String path : paths) {
+            if (!batch.isEmpty() && (batch.size() >= batchSize || Math.floorMod(path.hashCode(), batchSize) == 0)) {
+                result.add(batch);
+                batch = new ArrayList<>();
+            }
+            batch.add(path);
+        }
+        if (!batch.isEmpty()) {
+            result.add(batch);
+        }
+        return result;
+    }
+}
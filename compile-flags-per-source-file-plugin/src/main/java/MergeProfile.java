@@ -0,0 +1,99 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Turns the raw profile of a training run into the profile used by the profile guided compile tasks.
+//   Clang's raw profiles are merged by llvm-profdata into default.profdata.
+//   GCC writes one .gcda per object, named after the object's path relative to the build directory (see train<Binary>Profile),
+//   the files are copied from the instrumented to the optimized object directories, the profile doesn't depend on where the build directory is.
+@CacheableTask
+public abstract class MergeProfile extends DefaultTask {
+    static final String CLANG_PROFILE_NAME = "default.profdata";
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getRawProfileDirectory();
+
+    @Input
+    public abstract Property<Boolean> getClang();
+
+    // Path of each instrumented object directory to the one of its optimized compile task, relative to the build directory (GCC only)
+    @Input
+    public abstract MapProperty<String, String> getObjectFileDirectories();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @Inject
+    protected abstract FileSystemOperations getFileSystemOperations();
+
+    @TaskAction
+    public void doMerge() throws IOException {
+        final Path rawProfileDirectory = getRawProfileDirectory().get().getAsFile().toPath();
+        final Path outputDirectory = getOutputDirectory().get().getAsFile().toPath();
+        // Profiles of removed translation units would still be picked up by the compiler
+        getFileSystemOperations().delete(spec -> spec.delete(outputDirectory));
+        Files.createDirectories(outputDirectory);
+        if (getClang().get()) {
+            final List<String> rawProfiles = filesOf(rawProfileDirectory, ".profraw").stream().map(Path::toString).collect(Collectors.toList());
+            if (rawProfiles.isEmpty()) {
+                throw new IllegalStateException("The training run did not write any profile to '" + rawProfileDirectory + "'");
+            }
+            final List<String> args = new ArrayList<>();
+            args.add("merge");
+            args.add("-output=" + outputDirectory.resolve(CLANG_PROFILE_NAME));
+            args.addAll(rawProfiles);
+            getExecOperations().exec(spec -> {
+                spec.setExecutable("llvm-profdata");
+                spec.setArgs(args);
+            });
+            return;
+        }
+
+        int count = 0;
+        for (Path file : filesOf(rawProfileDirectory, ".gcda")) {
+            final String objectPath = rawProfileDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+            for (Map.Entry<String, String> entry : getObjectFileDirectories().get().entrySet()) {
+                if (objectPath.startsWith(entry.getKey() + "/")) {
+                    final Path target = outputDirectory.resolve(entry.getValue() + objectPath.substring(entry.getKey().length()));
+                    Files.createDirectories(target.getParent());
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                    ++count;
+                    break;
+                }
+            }
+        }
+        getLogger().info("Profile of {} translation units written to {}", count, outputDirectory);
+    }
+
+    private static List<Path> filesOf(Path directory, String extension) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(it -> it.getFileName().toString().endsWith(extension)).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Combines Ant-style path patterns into a single trie of path segments, a path is matched against all patterns in one walk.
+//   Literal segments are looked up by hash, wildcard segments (*, ?) are shared by identical segments and ** loops on its own node.
+//   The nodes reached by each directory are cached, so the files of a directory only walk their own name.
+final class PathPatternTrie {
+    private final Node root = new Node(false);
+    private final Map<String, Set<Node>> directoryStates = new HashMap<>();
+    private Set<Node> initialState = null;
+
+    // Patterns use '/' as separator, a trailing '/' matches everything below the directory, i.e. `dir/` is `dir/**`.
+    void add(String pattern, int index) {
+        String normalized = pattern.replace('\\', '/');
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        if (normalized.endsWith("/")) {
+            normalized += "**";
+        }
+
+        Node node = root;
+        for (String segment : normalized.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.child(segment);
+            }
+        }
+        node.accepting.set(index);
+
+        directoryStates.clear();
+        initialState = null;
+    }
+
+    // Indexes of all patterns matching the relative path, see add(String, int)
+    BitSet matchesOf(String relativePath) {
+        final int separator = relativePath.lastIndexOf('/');
+        final Set<Node> directoryState = separator < 0 ? initialState() : directoryStateOf(relativePath.substring(0, separator));
+        final BitSet result = new BitSet();
+        for (Node node : step(directoryState, relativePath.substring(separator + 1))) {
+            result.or(node.accepting);
+        }
+        return result;
+    }
+
+    private Set<Node> initialState() {
+        if (initialState == null) {
+            initialState = closureOf(Collections.singleton(root));
+        }
+        return initialState;
+    }
+
+    private Set<Node> directoryStateOf(String directory) {
+        Set<Node> result = directoryStates.get(directory);
+        if (result == null) {
+            final int separator = directory.lastIndexOf('/');
+            final Set<Node> parentState = separator < 0 ? initialState() : directoryStateOf(directory.substring(0, separator));
+            result = step(parentState, directory.substring(separator + 1));
+            directoryStates.put(directory, result);
+        }
+        return result;
+    }
+
+    private static Set<Node> step(Set<Node> state, String segment) {
+        final Set<Node> result = new HashSet<>();
+        for (Node node : state) {
+            final Node literal = node.literals.get(segment);
+            if (literal != null) {
+                result.add(literal);
+            }
+            for (Wildcard wildcard : node.wildcards.values()) {
+                if (wildcard.matches(segment)) {
+                    result.add(wildcard.node);
+                }
+            }
+            if (node.anyDirectories) {
+                result.add(node);
+            }
+        }
+        return closureOf(result);
+    }
+
+    // A ** matches zero directories, hence its node is reached without consuming any segment
+    private static Set<Node> closureOf(Set<Node> state) {
+        final Set<Node> result = new HashSet<>(state);
+        final Deque<Node> queue = new ArrayDeque<>(state);
+        while (!queue.isEmpty()) {
+            final Node node = queue.pop();
+            if (node.anyDirectoriesChild != null && result.add(node.anyDirectoriesChild)) {
+                queue.push(node.anyDirectoriesChild);
+            }
+        }
+        return result;
+    }
+
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private final Map<String, Wildcard> wildcards = new LinkedHashMap<>();
+        private final boolean anyDirectories;
+        private final BitSet accepting = new BitSet();
+        private Node anyDirectoriesChild = null;
+
+        Node(boolean anyDirectories) {
+            this.anyDirectories = anyDirectories;
+        }
+
+        Node child(String segment) {
+            if (segment.equals("**")) {
+                if (anyDirectoriesChild == null) {
+                    anyDirectoriesChild = new Node(true);
+                }
+                return anyDirectoriesChild;
+            } else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+                return wildcards.computeIfAbsent(segment, Wildcard::new).node;
+            }
+            return literals.computeIfAbsent(segment, __ -> new Node(false));
+        }
+    }
+
+    // The literal prefix and suffix reject most segments before the regex is evaluated
+    private static final class Wildcard {
+        private final String prefix;
+        private final String suffix;
+        private final Pattern pattern;
+        private final Node node = new Node(false);
+
+        Wildcard(String segment) {
+            final StringBuilder regex = new StringBuilder();
+            final StringBuilder literal = new StringBuilder();
+            for (char c : segment.toCharArray()) {
+                if (c == '*' || c == '?') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            this.pattern = Pattern.compile(regex.toString());
+            this.prefix = segment.substring(0, firstWildcardOf(segment));
+            this.suffix = segment.substring(lastWildcardOf(segment) + 1);
+        }
+
+        boolean matches(String segment) {
+            return segment.length() >= prefix.length() + suffix.length()
+                    && segment.startsWith(prefix)
+                    && segment.endsWith(suffix)
+                    && pattern.matcher(segment).matches();
+        }
+
+        private static int firstWildcardOf(String segment) {
+            final int star = segment.indexOf('*');
+            final int question = segment.indexOf('?');
+            return star < 0 ? question : question < 0 ? star : Math.min(star, question);
+        }
+
+        private static int lastWildcardOf(String segment) {
+            return Math.max(segment.lastIndexOf('*'), segment.lastIndexOf('?'));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Aggregates the per translation unit measurements of a binary's compile tasks into a JSON report.
+//   GCC-compatible compilers are measured by the compile time wrapper (wall/CPU time and peak RSS), Clang by -ftime-trace.
+//   Translation units are also grouped by compile task and by flag set, most expensive first, to find the flags worth tuning.
+public abstract class ReportCompileTimes extends DefaultTask {
+    private static final Pattern EXECUTE_COMPILER_EVENT = Pattern.compile("\\{[^{}]*\"name\"\\s*:\\s*\"ExecuteCompiler\"[^{}]*}");
+    private static final Pattern DURATION = Pattern.compile("\"dur\"\\s*:\\s*(\\d+)");
+    static final String TASK_WALL_TIME_FILE_NAME = "task-wall-time-ms";
+
+    @Nested
+    public abstract ListProperty<CompileTaskTimes> getCompileTasks();
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputFile();
+
+    @TaskAction
+    public void doReport() throws IOException {
+        final List<TranslationUnit> translationUnits = new ArrayList<>();
+        final Map<String, List<String>> flagSets = new HashMap<>();
+        for (CompileTaskTimes entry : getCompileTasks().get()) {
+            final String task = entry.getName().get();
+            final String flagSet = DefaultCompileFlagsExtension.digestOf(entry.getCompilerArgs().get());
+            flagSets.put(flagSet, entry.getCompilerArgs().get());
+            final long taskWallTime = readTaskWallTime(entry);
+            // Measurements of deleted sources are left behind as the measurements are only updated incrementally
+            final Set<String> sourcePaths = new HashSet<>(entry.getSourcePaths().get());
+            for (File file : entry.getMeasurements().getFiles()) {
+                if (file.getName().endsWith(".tsv")) {
+                    final String[] fields = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split("\t");
+                    if (fields.length == 4 && sourcePaths.contains(fields[0])) {
+                        translationUnits.add(new TranslationUnit(fields[0], task, flagSet, taskWallTime, Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                    }
+                }
+            }
+            for (File file : entry.getTraces().getFiles()) {
+                final Matcher event = EXECUTE_COMPILER_EVENT.matcher(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                if (event.find()) {
+                    final Matcher duration = DURATION.matcher(event.group());
+                    if (duration.find()) {
+                        // Trace durations are in microseconds, CPU time and memory are not traced
+                        translationUnits.add(new TranslationUnit(sourceOf(file, entry.getSourcePaths().get()), task, flagSet, taskWallTime, Long.parseLong(duration.group(1)) / 1000, -1, -1));
+                    }
+                }
+            }
+        }
+        translationUnits.sort(Comparator.comparingLong((TranslationUnit it) -> it.wallTimeMs).reversed());
+
+        try (BufferedWriter writer = Files.newBufferedWriter(getOutputFile().get().getAsFile().toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"translationUnits\": [");
+            boolean first = true;
+            for (TranslationUnit it : translationUnits) {
+                writer.write(first ? "\n    " : ",\n    ");
+                first = false;
+                writer.write("{\"file\": ");
+                GenerateCompilationDatabase.writeString(writer, it.file);
+                writer.write(", \"task\": ");
+                GenerateCompilationDatabase.writeString(writer, it.task);
+                writer.write(", \"flagSet\": ");
+                GenerateCompilationDatabase.writeString(writer, it.flagSet);
+                writer.write(", \"wallTimeMs\": " + it.wallTimeMs + ", \"cpuTimeMs\": " + it.cpuTimeMs + ", \"peakRssKb\": " + it.peakRssKb + "}");
+            }
+            writer.write("\n  ],\n  \"tasks\": ");
+            writeGroups(writer, translationUnits, it -> it.task, null);
+            writer.write(",\n  \"flagSets\": ");
+            writeGroups(writer, translationUnits, it -> it.flagSet, flagSets);
+            writer.write("\n}\n");
+        }
+        getLogger().lifecycle("Compile time report of {} translation units written to {}", translationUnits.size(), getOutputFile().get().getAsFile());
+    }
+
+    // Grouped by task or flag set (flagSets is null when grouping by task).
+    //   The total and the slowest translation unit tell whether a single file or the flags are to blame.
+    private static void writeGroups(Writer writer, List<TranslationUnit> translationUnits, Function<TranslationUnit, String> key, Map<String, List<String>> flagSets) throws IOException {
+        final Map<String, List<TranslationUnit>> groups = new LinkedHashMap<>();
+        for (TranslationUnit it : translationUnits) {
+            groups.computeIfAbsent(key.apply(it), __ -> new ArrayList<>()).add(it);
+        }
+        final List<Map.Entry<String, List<TranslationUnit>>> sortedGroups = new ArrayList<>(groups.entrySet());
+        sortedGroups.sort(Comparator.comparingLong((Map.Entry<String, List<TranslationUnit>> it) -> totalWallTimeOf(it.getValue())).reversed());
+
+        writer.write("[");
+        boolean first = true;
+        for (Map.Entry<String, List<TranslationUnit>> group : sortedGroups) {
+            writer.write(first ? "\n    " : ",\n    ");
+            first = false;
+            final TranslationUnit slowest = group.getValue().get(0); // translation units are sorted
+            writer.write("{\"name\": ");
+            GenerateCompilationDatabase.writeString(writer, group.getKey());
+            writer.write(", \"translationUnits\": " + group.getValue().size());
+            writer.write(", \"totalWallTimeMs\": " + totalWallTimeOf(group.getValue()));
+            writer.write(", \"maxWallTimeMs\": " + slowest.wallTimeMs + ", \"slowest\": ");
+            GenerateCompilationDatabase.writeString(writer, slowest.file);
+            writer.write(", \"totalCpuTimeMs\": " + group.getValue().stream().mapToLong(it -> Math.max(it.cpuTimeMs, 0)).sum());
+            writer.write(", \"maxPeakRssKb\": " + group.getValue().stream().mapToLong(it -> it.peakRssKb).max().orElse(-1));
+            if (flagSets == null) {
+                writer.write(", \"taskWallTimeMs\": " + slowest.taskWallTimeMs);
+            } else {
+                writer.write(", \"flags\": [");
+                boolean firstFlag = true;
+                for (String flag : flagSets.get(group.getKey())) {
+                    if (!firstFlag) {
+                        writer.write(", ");
+                    }
+                    firstFlag = false;
+                    GenerateCompilationDatabase.writeString(writer, flag);
+                }
+                writer.write("]");
+            }
+            writer.write("}");
+        }
+        writer.write("\n  ]");
+    }
+
+    private static long totalWallTimeOf(List<TranslationUnit> translationUnits) {
+        return translationUnits.stream().mapToLong(it -> it.wallTimeMs).sum();
+    }
+
+    private static long readTaskWallTime(CompileTaskTimes entry) throws IOException {
+        for (File file : entry.getMeasurements().getFiles()) {
+            if (file.getName().equals(TASK_WALL_TIME_FILE_NAME)) {
+                return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+            }
+        }
+        return -1;
+    }
+
+    // Clang names the trace after the object file which is named after the source file
+    private static String sourceOf(File trace, List<String> sourcePaths) {
+        final String baseName = trace.getName().substring(0, trace.getName().length() - ".json".length());
+        return sourcePaths.stream()
+                .filter(it -> new File(it).getName().replaceFirst("\\.[^.]*$", "").equals(baseName))
+                .findFirst()
+                .orElse(trace.getName());
+    }
+
+    private static final class TranslationUnit {
+        private final String file;
+        private final String task;
+        private final String flagSet;
+        private final long taskWallTimeMs;
+        private final long wallTimeMs;
+        private final long cpuTimeMs;
+        private final long peakRssKb;
+
+        TranslationUnit(String file, String task, String flagSet, long taskWallTimeMs, long wallTimeMs, long cpuTimeMs, long peakRssKb) {
+            this.file = file;
+            this.task = task;
+            this.flagSet = flagSet;
+            this.taskWallTimeMs = taskWallTimeMs;
+            this.wallTimeMs = wallTimeMs;
+            this.cpuTimeMs = cpuTimeMs;
+            this.peakRssKb = peakRssKb;
+        }
+    }
+
+    public static abstract class CompileTaskTimes {
+        @Input
+        public abstract Property<String> getName();
+
+        // The flag set is identified by the hash of the compile task's flags
+        @Input
+        public abstract ListProperty<String> getCompilerArgs();
+
+        // Absolute paths, as passed to the compiler
+        @Input
+        public abstract ListProperty<String> getSourcePaths();
+
+        @InputFiles
+        @PathSensitive(PathSensitivity.RELATIVE)
+        public abstract ConfigurableFileCollection getMeasurements();
+
+        @InputFiles
+        @PathSensitive(PathSensitivity.RELATIVE)
+        public abstract ConfigurableFileCollection getTraces();
+    }
+}
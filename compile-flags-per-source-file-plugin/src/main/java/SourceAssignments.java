@@ -0,0 +1,90 @@
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.services.BuildServiceRegistry;
+import org.gradle.build.event.BuildEventsListenerRegistry;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// The bucket of each source file classified during the build, by partition (see SourcePartition).
+//   With the configuration cache each task resolves its own copy of the partition, the assignments are shared so each file is only classified once per build.
+//   Files added later (e.g. generated by a task) are the only ones classified when the sources are resolved again.
+//   The partitions also store their assignments for the next build, see SourcePartition.
+// Also keeps the resolved sources of each partition once the tasks generating them finished, see sourcesOf, and their grouping by bucket, see groupingOf.
+public abstract class SourceAssignments implements BuildService<BuildServiceParameters.None>, OperationCompletionListener {
+    // Bucket name of the files of the default bucket, the map doesn't allow null values
+    static final String DEFAULT_BUCKET = "";
+    private static final String NAME = "sourceAssignments";
+    private final Map<String, Map<File, String>> partitions = new ConcurrentHashMap<>();
+    private final Map<String, Set<File>> sources = new ConcurrentHashMap<>();
+    private final Map<String, Grouping<?>> groupings = new ConcurrentHashMap<>();
+    private final Set<String> finishedTasks = ConcurrentHashMap.newKeySet();
+
+    static Provider<SourceAssignments> of(BuildServiceRegistry sharedServices) {
+        return sharedServices.registerIfAbsent(NAME, SourceAssignments.class, __ -> {});
+    }
+
+    // The finished tasks tell whether the resolved sources may still change, see sourcesOf
+    static Provider<SourceAssignments> of(BuildServiceRegistry sharedServices, BuildEventsListenerRegistry listeners) {
+        final Provider<SourceAssignments> result = of(sharedServices);
+        listeners.onTaskCompletion(result);
+        return result;
+    }
+
+    // Starts from the given assignments, e.g. the ones stored by the previous build (see SourcePartition)
+    Map<File, String> of(String partitionId, Supplier<Map<File, String>> initialAssignments) {
+        return partitions.computeIfAbsent(partitionId, __ -> new ConcurrentHashMap<>(initialAssignments.get()));
+    }
+
+    // Resolved again until the tasks are running and all the tasks producing the sources finished.
+    //   E.g. resolving them while the build script is evaluated or while the task graph is built doesn't leave out sources added later or generated.
+    Set<File> sourcesOf(String partitionId, FileCollection files, Collection<String> producers) {
+        Set<File> result = sources.get(partitionId);
+        if (result == null) {
+            result = files.getFiles();
+            if (!finishedTasks.isEmpty() && finishedTasks.containsAll(producers)) {
+                sources.put(partitionId, result);
+            }
+        }
+        return result;
+    }
+
+    // The given grouping of the resolved sources (see sourcesOf), computed again only when the sources are resolved again
+    @SuppressWarnings("unchecked")
+    <T> T groupingOf(String key, Set<File> sources, Function<Set<File>, T> grouping) {
+        final Grouping<?> previous = groupings.get(key);
+        if (previous != null && previous.sources == sources) {
+            return (T) previous.value;
+        }
+        final T result = grouping.apply(sources);
+        groupings.put(key, new Grouping<>(sources, result));
+        return result;
+    }
+
+    @Override
+    public void onFinish(FinishEvent event) {
+        if (event instanceof TaskFinishEvent) {
+            finishedTasks.add(((TaskFinishEvent) event).getDescriptor().getTaskPath());
+        }
+    }
+
+    private static final class Grouping<T> {
+        private final Set<File> sources;
+        private final T value;
+
+        Grouping(Set<File> sources, T value) {
+            this.sources = sources;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import org.gradle.api.Task;
+import org.gradle.api.Transformer;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.specs.Spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Assigns each source file of a component to exactly one bucket (or the default bucket).
+//   The bucket sources are views of the component's sources grouped by bucket whenever they are resolved, i.e. including the sources generated by a task once it ran.
+//   The sources are resolved and grouped once for all the views (see SourceAssignments), as opposed to each view filtering all of them.
+//   Classifying a file is a lookup of its own bucket or else of its first matching spec, the specs are evaluated once per file (see SourceSpecMatcher).
+//   The classified files are kept for the build (see SourceAssignments), resolving the sources again only classifies the added files.
+//   They are also stored under the build directory, keyed by the fingerprint of the specs, the next build only classifies the files missing from them.
+//   Spec closures can't be fingerprinted (their code and captured values may change with the build script), the partitions using them aren't stored.
+//   Only the copies loaded from a configuration cache entry use the stored assignments, see configuring.
+final class SourcePartition {
+    private static final Logger LOGGER = Logging.getLogger(SourcePartition.class);
+    // Identifies the partition in the assignments, shared by the copies the configuration cache makes for each task
+    private final String id = UUID.randomUUID().toString();
+    // Bumped by each assignment, files classified before are classified again
+    private int generation = 0;
+    private final FileCollection sources;
+    private final SourceSpecMatcher matcher;
+    private final Provider<SourceAssignments> assignments;
+    private final ObjectFactory objects;
+    private final Provider<Directory> storeDirectory;
+    // Paths of the tasks producing the sources, stored as a value by the configuration cache
+    private final Provider<Set<String>> producers;
+    private transient Set<String> producerPaths = null;
+    private final Map<File, String> fileBuckets = new HashMap<>();
+    private final Map<Integer, String> specBuckets = new HashMap<>();
+    // Files classified by this copy of the partition since the assignments were last stored
+    private transient boolean classified = false;
+    // False for the copies loaded from a configuration cache entry, which leaves transient fields to their default value.
+    //   The views are resolved while the task graph is built, reading the stored assignments there would make them an input of the cache entry.
+    private transient boolean configuring = true;
+
+    SourcePartition(FileCollection sources, SourceSpecMatcher matcher, Provider<SourceAssignments> assignments, ObjectFactory objects, ProviderFactory providers, Provider<Directory> storeDirectory) {
+        this.sources = sources;
+        this.matcher = matcher;
+        this.assignments = assignments;
+        this.objects = objects;
+        this.storeDirectory = storeDirectory;
+        this.producers = providers.provider(() -> sources.getBuildDependencies().getDependencies(null).stream().map(Task::getPath).collect(Collectors.toSet()));
+    }
+
+    // Files assigned explicitly always win over spec assignments.
+    synchronized void assign(File file, DefaultCompileFlagsExtension.CompileFlagsBucket bucket) {
+        fileBuckets.put(file, bucket.getName());
+        ++generation;
+    }
+
+    // Specs are matched in index order (see SourceSpecMatcher), the first matching spec wins.
+    synchronized void assign(int specIndex, DefaultCompileFlagsExtension.CompileFlagsBucket bucket) {
+        specBuckets.put(specIndex, bucket.getName());
+        ++generation;
+    }
+
+    FileCollection sourcesOf(DefaultCompileFlagsExtension.CompileFlagsBucket bucket) {
+        return viewOf(bucket.getName(), 0, 1);
+    }
+
+    FileCollection defaultSources() {
+        return viewOf(SourceAssignments.DEFAULT_BUCKET, 0, 1);
+    }
+
+    // The sources of the default bucket whose relative path hashes to the given shard, they only move to another shard when the shard count changes
+    FileCollection defaultSources(int shard, int shardCount) {
+        return viewOf(SourceAssignments.DEFAULT_BUCKET, shard, shardCount);
+    }
+
+    // Mapped from the assignments service, the configuration cache stores the mapping rather than the files
+    private FileCollection viewOf(String bucket, int shard, int shardCount) {
+        return objects.fileCollection().from(assignments.map(new SourcesOfBucket(this, bucket, shard, shardCount))).builtBy(sources);
+    }
+
+    private synchronized Set<String> producerPaths() {
+        if (producerPaths == null) {
+            producerPaths = producers.get();
+        }
+        return producerPaths;
+    }
+
+    private Buckets bucketsOf(SourceAssignments assignments) {
+        final int generation;
+        synchronized (this) {
+            generation = this.generation;
+        }
+        return assignments.groupingOf(id + "/" + generation, assignments.sourcesOf(id, sources, producerPaths()), this::bucketsOf);
+    }
+
+    private Buckets bucketsOf(Set<File> sources) {
+        final Map<String, Set<File>> result = new HashMap<>();
+        for (File file : sources) {
+            final String bucket = bucketOf(file);
+            result.computeIfAbsent(bucket == null ? SourceAssignments.DEFAULT_BUCKET : bucket, __ -> new LinkedHashSet<>()).add(file);
+        }
+        LOGGER.info("Partitioned {} source files against {} source specs ({} spec evaluations)", matcher.getFileCount(), matcher.getSpecCount(), matcher.getEvaluationCount());
+        store(sources);
+        return new Buckets(matcher.getBaseDirectory(), result);
+    }
+
+    // Name of the bucket of the file, null for the default bucket
+    synchronized String bucketOf(File file) {
+        final String result = fileBuckets.get(file);
+        if (result != null) {
+            return result;
+        }
+
+        final String bucket = assignments().computeIfAbsent(file, this::classify);
+        return bucket.equals(SourceAssignments.DEFAULT_BUCKET) ? null : bucket;
+    }
+
+    private String classify(File file) {
+        classified = true;
+        final BitSet matches = matcher.matchesOf(file);
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            final String bucket = specBuckets.get(i);
+            if (bucket != null) {
+                return bucket;
+            }
+        }
+        return SourceAssignments.DEFAULT_BUCKET;
+    }
+
+    private Map<File, String> assignments() {
+        return assignments.get().of(id + "/" + generation, this::storedAssignments);
+    }
+
+    // The file the assignments are stored in, null when a spec can't be fingerprinted
+    private File storeFile() {
+        final List<String> fingerprint = new ArrayList<>();
+        final List<Spec<? super File>> specs = matcher.getSpecs();
+        for (int i = 0; i < specs.size(); ++i) {
+            if (!(specs.get(i) instanceof SourcePatterns)) {
+                return null;
+            }
+            final SourcePatterns patterns = (SourcePatterns) specs.get(i);
+            fingerprint.add(SourcePatterns.relativePathOf(matcher.getBaseDirectory(), patterns.getBaseDirectory()));
+            fingerprint.addAll(patterns.getPatterns());
+            fingerprint.add("-> " + specBuckets.getOrDefault(i, SourceAssignments.DEFAULT_BUCKET));
+        }
+        return storeDirectory.get().file(DefaultCompileFlagsExtension.digestOf(fingerprint) + ".txt").getAsFile();
+    }
+
+    // One line per file, its bucket (empty for the default bucket) then its path relative to the base directory of the specs
+    private synchronized Map<File, String> storedAssignments() {
+        final File storeFile = configuring ? null : storeFile();
+        if (storeFile == null || !storeFile.isFile()) {
+            return Collections.emptyMap();
+        }
+        final Map<File, String> result = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(storeFile.toPath(), StandardCharsets.UTF_8)) {
+                final int separator = line.indexOf('\t');
+                if (separator >= 0) {
+                    result.put(new File(matcher.getBaseDirectory(), line.substring(separator + 1)), line.substring(0, separator));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.info("Could not read the source assignments stored in {}, classifying all sources", storeFile, e);
+            return Collections.emptyMap();
+        }
+        return result;
+    }
+
+    // Only the given sources are stored, i.e. removed files are dropped.
+    //   Also stored when another copy of the partition classified the files, e.g. while the task graph was built.
+    //   Written to a temporary file first, the copies of the partition made by the configuration cache may store the same assignments at once.
+    private void store(Set<File> sources) {
+        final File storeFile;
+        final Map<File, String> assignments;
+        synchronized (this) {
+            storeFile = configuring ? null : storeFile();
+            if (storeFile == null || (!classified && storeFile.isFile())) {
+                return;
+            }
+            classified = false;
+            assignments = assignments();
+        }
+        final StringBuilder content = new StringBuilder();
+        for (File file : sources) {
+            final String bucket = assignments.get(file);
+            if (bucket != null) {
+                content.append(bucket).append('\t').append(SourcePatterns.relativePathOf(matcher.getBaseDirectory(), file)).append('\n');
+            }
+        }
+        try {
+            Files.createDirectories(storeFile.getParentFile().toPath());
+            final Path temporaryFile = Files.createTempFile(storeFile.getParentFile().toPath(), storeFile.getName(), ".tmp");
+            Files.write(temporaryFile, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryFile, storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.info("Could not store the source assignments in {}", storeFile, e);
+        }
+    }
+
+    // The resolved sources by bucket, the shards of the default bucket are split on first use in a single pass
+    private static final class Buckets {
+        private final File baseDirectory;
+        private final Map<String, Set<File>> sources;
+        private final Map<Integer, List<Set<File>>> shards = new ConcurrentHashMap<>();
+
+        Buckets(File baseDirectory, Map<String, Set<File>> sources) {
+            this.baseDirectory = baseDirectory;
+            this.sources = sources;
+        }
+
+        Set<File> sourcesOf(String bucket, int shard, int shardCount) {
+            final Set<File> result = sources.getOrDefault(bucket, Collections.emptySet());
+            if (shardCount == 1) {
+                return result;
+            }
+            return shards.computeIfAbsent(shardCount, __ -> {
+                final List<Set<File>> split = new ArrayList<>();
+                for (int i = 0; i < shardCount; ++i) {
+                    split.add(new LinkedHashSet<>());
+                }
+                for (File file : result) {
+                    split.get(Math.floorMod(SourcePatterns.relativePathOf(baseDirectory, file).hashCode(), shardCount)).add(file);
+                }
+                return split;
+            }).get(shard);
+        }
+    }
+
+    // Not a lambda, the configuration cache serializes the mapping along with the view
+    private static final class SourcesOfBucket implements Transformer<Set<File>, SourceAssignments> {
+        private final SourcePartition partition;
+        private final String bucket;
+        private final int shard;
+        private final int shardCount;
+
+        SourcesOfBucket(SourcePartition partition, String bucket, int shard, int shardCount) {
+            this.partition = partition;
+            this.bucket = bucket;
+            this.shard = shard;
+            this.shardCount = shardCount;
+        }
+
+        @Override
+        public Set<File> transform(SourceAssignments assignments) {
+            return partition.bucketsOf(assignments).sourcesOf(bucket, shard, shardCount);
+        }
+    }
+}
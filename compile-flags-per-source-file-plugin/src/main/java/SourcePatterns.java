@@ -0,0 +1,48 @@
+import org.gradle.api.specs.Spec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Ant-style patterns relative to a base directory, see PathPatternTrie.
+//   The SourceSpecMatcher combines the patterns of all source specs into a single trie, on its own (see excludeFromUnity) the spec uses a trie of its own patterns.
+final class SourcePatterns implements Spec<File> {
+    private final File baseDirectory;
+    private final List<String> patterns;
+    // Left out of the configuration cache (which serializes the spec with the source views), rebuilt on first use
+    private transient PathPatternTrie trie = null;
+
+    SourcePatterns(File baseDirectory, List<String> patterns) {
+        this.baseDirectory = baseDirectory;
+        this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+    }
+
+    File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    List<String> getPatterns() {
+        return patterns;
+    }
+
+    @Override
+    public synchronized boolean isSatisfiedBy(File file) {
+        if (trie == null) {
+            trie = new PathPatternTrie();
+            for (String pattern : patterns) {
+                trie.add(pattern, 0);
+            }
+        }
+        return trie.matchesOf(relativePathOf(baseDirectory, file)).get(0);
+    }
+
+    static String relativePathOf(File baseDirectory, File file) {
+        return baseDirectory.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public String toString() {
+        return "patterns " + patterns;
+    }
+}
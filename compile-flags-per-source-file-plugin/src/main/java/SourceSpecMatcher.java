@@ -0,0 +1,107 @@
+import org.gradle.api.specs.Spec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Evaluates each source spec exactly once per file and caches the matches as a bitset keyed by spec index.
+//   Specs added after a file was matched are only evaluated for that file on the next lookup.
+//   Pattern specs (see SourcePatterns) are combined into a single trie, all of them are matched in a single walk of the file path.
+final class SourceSpecMatcher {
+    private final File baseDirectory;
+    private final List<Spec<? super File>> specs = new ArrayList<>();
+    // Derived from the specs, hence left out of the configuration cache (which serializes the matcher with the source views) and rebuilt on first use
+    private transient State state = null;
+    // The evaluations of a spec closure or of the pattern trie, see getEvaluationCount()
+    private transient long evaluationCount = 0;
+
+    SourceSpecMatcher(File baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    synchronized int add(Spec<? super File> spec) {
+        final int result = specs.size();
+        specs.add(spec);
+        if (state != null) {
+            state.add(spec, result);
+        }
+        return result;
+    }
+
+    synchronized BitSet matchesOf(File file) {
+        final State state = state();
+        final Matches result = state.matches.computeIfAbsent(file, __ -> new Matches());
+        BitSet patternMatches = null;
+        for (; result.evaluated < specs.size(); ++result.evaluated) {
+            if (state.patternSpecs.get(result.evaluated)) {
+                if (patternMatches == null) {
+                    ++evaluationCount;
+                    patternMatches = state.patterns.matchesOf(SourcePatterns.relativePathOf(baseDirectory, file));
+                }
+                if (patternMatches.get(result.evaluated)) {
+                    result.bits.set(result.evaluated);
+                }
+            } else {
+                ++evaluationCount;
+                if (specs.get(result.evaluated).isSatisfiedBy(file)) {
+                    result.bits.set(result.evaluated);
+                }
+            }
+        }
+        return (BitSet) result.bits.clone();
+    }
+
+    synchronized List<Spec<? super File>> getSpecs() {
+        return new ArrayList<>(specs);
+    }
+
+    synchronized int getSpecCount() {
+        return specs.size();
+    }
+
+    synchronized int getFileCount() {
+        return state == null ? 0 : state.matches.size();
+    }
+
+    // At most one per spec closure and file plus one walk of the pattern trie per file
+    synchronized long getEvaluationCount() {
+        return evaluationCount;
+    }
+
+    private State state() {
+        if (state == null) {
+            state = new State();
+            for (int i = 0; i < specs.size(); ++i) {
+                state.add(specs.get(i), i);
+            }
+        }
+        return state;
+    }
+
+    private static final class State {
+        private final PathPatternTrie patterns = new PathPatternTrie();
+        private final BitSet patternSpecs = new BitSet();
+        private final Map<File, Matches> matches = new HashMap<>();
+
+        void add(Spec<? super File> spec, int index) {
+            if (spec instanceof SourcePatterns) {
+                for (String pattern : ((SourcePatterns) spec).getPatterns()) {
+                    patterns.add(pattern, index);
+                }
+                patternSpecs.set(index);
+            }
+        }
+    }
+
+    private static final class Matches {
+        private final BitSet bits = new BitSet();
+        private int evaluated = 0;
+    }
+}
@@ -0,0 +1,79 @@
+#!/bin/sh
+# Wraps the compiler proper (see GCC -wrapper) to record the cost of each translation unit.
+#   Usage: compile-time-wrapper.sh <measurements-dir> <compiler> <args...>
+#   Writes one `<source name>.<hash>.tsv` per source: source, wall time (ms), cpu time (ms), peak RSS (KiB).
+#   CPU time and peak RSS are reported as -1 where unavailable.
+measurements="$1"
+shift
+
+# The source is the first operand with a source extension that is not the value of an option
+source=""
+previous=""
+for arg in "$@"; do
+    case "$previous" in
+        -o|-include|-imacros|-dumpdir|-dumpbase|-dumpbase-ext|-auxbase|-auxbase-strip) ;;
+        *)
+            case "$arg" in
+                *.cpp|*.cc|*.cxx|*.c++|*.C|*.c|*.h|*.hpp|*.hxx|*.h++) [ -z "$source" ] && source="$arg" ;;
+            esac
+            ;;
+    esac
+    previous="$arg"
+done
+
+# The driver also runs the assembler and linker through the wrapper, only measure the compiler proper
+if [ -z "$source" ]; then
+    exec "$@"
+fi
+
+mkdir -p "$measurements"
+key=$(printf '%s' "$source" | cksum | cut -d ' ' -f 1)
+output="$measurements/$(basename "$source").$key.tsv"
+
+# Exact CPU time and peak RSS of the compiler from its resource usage when Python is available
+if command -v python3 >/dev/null 2>&1; then
+    exec python3 -c '
+import resource, subprocess, sys, time
+output, source, command = sys.argv[1], sys.argv[2], sys.argv[3:]
+start = time.monotonic()
+status = subprocess.call(command)
+wall = int((time.monotonic() - start) * 1000)
+usage = resource.getrusage(resource.RUSAGE_CHILDREN)
+rss = usage.ru_maxrss // 1024 if sys.platform == "darwin" else usage.ru_maxrss
+with open(output, "w") as f:
+    f.write("%s\t%d\t%d\t%d\n" % (source, wall, int((usage.ru_utime + usage.ru_stime) * 1000), rss))
+sys.exit(status if status >= 0 else 128 - status)
+' "$output" "$source" "$@"
+fi
+
+now() {
+    result=$(date +%s%N 2>/dev/null)
+    case "$result" in
+        *N|'') echo $(( $(date +%s) * 1000 )) ;;
+        *) echo $(( result / 1000000 )) ;;
+    esac
+}
+
+# Otherwise sample them from /proc, the last sample before the compiler exits is kept
+ticks=$(getconf CLK_TCK 2>/dev/null || echo 100)
+cpu=-1
+rss=-1
+start=$(now)
+"$@" &
+pid=$!
+while kill -0 "$pid" 2>/dev/null; do
+    if [ -r "/proc/$pid/status" ]; then
+        sample=$(awk '/^VmHWM:/ { print $2 }' "/proc/$pid/status" 2>/dev/null)
+        [ -n "$sample" ] && rss=$sample
+        # Fields 14 and 15 are utime and stime, the command name (field 2) is stripped as it may contain spaces
+        sample=$(sed 's/^.*) //' "/proc/$pid/stat" 2>/dev/null | awk -v ticks="$ticks" '{ printf "%d", ($12 + $13) * 1000 / ticks }')
+        [ -n "$sample" ] && cpu=$sample
+    fi
+    sleep 0.05 2>/dev/null || sleep 1
+done
+wait "$pid"
+status=$?
+end=$(now)
+
+printf '%s\t%s\t%s\t%s\n' "$source" $(( end - start )) "$cpu" "$rss" > "$output"
+exit $status
@@ -0,0 +1,91 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds a C++ application with the host GCC through a fake launcher logging its arguments before running the compiler, in place of ccache.
+class CompilerLauncherFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        compilerLauncher = file('launcher.sh').absolutePath\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1')\n"
+                + "    }\n"
+                + "}\n");
+        project.write("launcher.sh", "#!/bin/sh\necho \"$CCACHE_DIR $CCACHE_BASEDIR $*\" >> \"" + projectDirectory.resolve("launcher.log") + "\"\nexec \"$@\"\n");
+        projectDirectory.resolve("launcher.sh").toFile().setExecutable(true);
+        project.write("src/main/cpp/main.cpp", "int lib();\nint main() { return lib() - 1; }\n");
+        project.write("src/main/cpp/lib/lib.cpp", "int lib() { return LIB; }\n");
+    }
+
+    @Test
+    void compilesEverySourceThroughTheLauncher() throws IOException {
+        final BuildResult result = build("assemble");
+
+        final Path script = projectDirectory.resolve("build/compiler-launcher/gcc/g++");
+        assertTrue(Files.isExecutable(script));
+        final String root = projectDirectory.toFile().getCanonicalFile().getAbsolutePath();
+        final String content = project.read("build/compiler-launcher/gcc/g++");
+        assertTrue(content.startsWith("#!/bin/sh\n"), content);
+        assertTrue(content.contains("CCACHE_DIR='" + projectDirectory.toFile().getCanonicalFile().toPath().resolve(".gradle/compiler-cache") + "'\n"), content);
+        assertTrue(content.contains("CCACHE_BASEDIR='" + root + "'\n"), content);
+        assertTrue(content.contains("CCACHE_NOHASHDIR=true\n"), content);
+        assertTrue(content.contains("export CCACHE_DIR CCACHE_BASEDIR CCACHE_NOHASHDIR CCACHE_STATSLOG SCCACHE_DIR\n"), content);
+        // Without path on the tool chain the launcher looks up the compiler
+        assertTrue(content.contains("exec '" + projectDirectory.toFile().getCanonicalFile().toPath().resolve("launcher.sh") + "' 'g++' '-fdebug-prefix-map=" + root + "=.' \"$@\"\n"), content);
+
+        // The launcher scripts are generated before any compile task runs
+        final List<String> executed = result.getTasks().stream().map(BuildTask::getPath).collect(Collectors.toList());
+        for (String compileTask : executed.stream().filter(it -> it.startsWith(":compile")).collect(Collectors.toList())) {
+            assertTrue(executed.indexOf(":generateCompilerLaunchers") < executed.indexOf(compileTask), compileTask);
+        }
+
+        final List<String> invocations = Arrays.stream(project.read("launcher.log").split("\n"))
+                .filter(it -> it.contains(".cpp"))
+                .collect(Collectors.toList());
+        assertEquals(2, invocations.size(), invocations.toString());
+        for (String invocation : invocations) {
+            assertTrue(invocation.startsWith(projectDirectory.toFile().getCanonicalFile().toPath().resolve(".gradle/compiler-cache") + " " + root + " "), invocation);
+            assertTrue(invocation.contains("-fdebug-prefix-map=" + root + "=."), invocation);
+        }
+    }
+
+    @Test
+    void restoresTheLauncherScriptsWhenTheConfigurationCacheEntryIsReused() throws IOException {
+        build("assemble", "--configuration-cache");
+        build("clean", "--configuration-cache");
+
+        final BuildResult result = build("assemble", "--configuration-cache");
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        assertEquals(TaskOutcome.SUCCESS, result.task(":generateCompilerLaunchers").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        assertTrue(Files.isExecutable(projectDirectory.resolve("build/compiler-launcher/gcc/g++")));
+    }
+
+    private BuildResult build(String... arguments) {
+        return project.runner(arguments)
+                .build();
+    }
+
+
+}
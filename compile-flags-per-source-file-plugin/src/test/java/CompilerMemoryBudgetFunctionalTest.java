@@ -0,0 +1,130 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds a C++ application with the host GCC through a fake launcher, the compilers of all the tasks share the budget.
+//   The launcher runs as a child of the compiler script and logs the slots held by the script and by every script at that point, as opposed to when the compilers ran.
+class CompilerMemoryBudgetFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        final Path slots = projectDirectory.resolve("build/compiler-memory-budget");
+        project.write("launcher.sh", "#!/bin/sh\n"
+                + "for arg in \"$@\"; do\n"
+                + "    case \"$arg\" in\n"
+                + "    *.cpp)\n"
+                + "        held=0\n"
+                + "        occupied=0\n"
+                + "        for slot in \"" + slots + "\"/*; do\n"
+                + "            [ -L \"$slot\" ] && occupied=$((occupied + 1))\n"
+                + "            [ \"$(readlink \"$slot\")\" = \"$PPID\" ] && held=$((held + 1))\n"
+                + "        done\n"
+                + "        echo \"$(basename \"$arg\") $held $occupied\" >> \"" + projectDirectory.resolve("launcher.log") + "\"\n"
+                + "    esac\n"
+                + "done\n"
+                + "exec \"$@\"\n");
+        projectDirectory.resolve("launcher.sh").toFile().setExecutable(true);
+        project.write("src/main/cpp/main.cpp", "int first();\nint second();\nint third();\nint other();\nint main() { return first() + second() + third() + other() - 3; }\n");
+        project.write("src/main/cpp/other.cpp", "int other() { return 0; }\n");
+        project.write("src/main/cpp/lib/first.cpp", "int first() { return LIB; }\n");
+        project.write("src/main/cpp/lib/second.cpp", "int second() { return LIB; }\n");
+        project.write("src/main/cpp/lib/third.cpp", "int third() { return LIB; }\n");
+    }
+
+    @Test
+    void runsASingleCompilerAtOnceWithABudgetOfOneCompiler() throws IOException {
+        writeBuildScript(2048, "compilerLauncher = file('launcher.sh').absolutePath");
+
+        assertEquals(TaskOutcome.SUCCESS, build().task(":linkDebug").getOutcome());
+        assertEquals(Arrays.asList("first.cpp 1 1", "main.cpp 1 1", "other.cpp 1 1", "second.cpp 1 1", "third.cpp 1 1"), launcherLog());
+
+        final String content = project.read("build/compiler-launcher/gcc/g++");
+        assertTrue(content.contains("slots='" + projectDirectory.toFile().getCanonicalFile().toPath().resolve("build/compiler-memory-budget") + "'\n"), content);
+        assertTrue(content.contains("-lt 1 ] &&"), content);
+        // The compiler runs as a child of the script, which frees the slot once it exits
+        assertTrue(content.endsWith("'g++' '-fdebug-prefix-map=" + projectDirectory.toFile().getCanonicalFile() + "=.' \"$@\"\n"), content);
+        assertFalse(content.contains("exec "), content);
+        // Deleted along with the budget at the end of the build
+        assertFalse(Files.exists(projectDirectory.resolve("build/compiler-memory-budget")));
+    }
+
+    // The compile tasks don't reserve anything, the compilers of the main and the bucket task take a slot each
+    @Test
+    void runsAsManyCompilersAtOnceAsTheBudgetAllows() throws IOException {
+        writeBuildScript(4096, "compilerLauncher = file('launcher.sh').absolutePath");
+
+        assertEquals(TaskOutcome.SUCCESS, build().task(":linkDebug").getOutcome());
+        final List<String> log = launcherLog();
+        assertEquals(5, log.size(), log.toString());
+        assertTrue(log.stream().allMatch(it -> it.endsWith(" 1 1") || it.endsWith(" 1 2")), log.toString());
+        final String content = project.read("build/compiler-launcher/gcc/g++");
+        assertTrue(content.contains("-lt 2 ] &&"), content);
+    }
+
+    @Test
+    void takesTheSlotsOfTheEstimateDeclaredForTheSources() throws IOException {
+        writeBuildScript(6144, "compilerLauncher = file('launcher.sh').absolutePath", ".compilerMemoryEstimate(3000)");
+
+        assertEquals(TaskOutcome.SUCCESS, build().task(":linkDebug").getOutcome());
+        final List<String> log = launcherLog().stream().map(it -> it.substring(0, it.lastIndexOf(' '))).collect(Collectors.toList());
+        assertEquals(Arrays.asList("first.cpp 2", "main.cpp 1", "other.cpp 1", "second.cpp 2", "third.cpp 2"), log);
+        // Only needed while the compilers run
+        assertFalse(Files.exists(projectDirectory.resolve("build/obj/main/debug/compiler-memory-slots.txt")));
+    }
+
+    @Test
+    void runsTheCompilerThroughTheBudgetWithoutLauncher() throws IOException {
+        writeBuildScript(2048, "");
+
+        assertEquals(TaskOutcome.SUCCESS, build().task(":linkDebug").getOutcome());
+        final String content = project.read("build/compiler-launcher/gcc/g++");
+        assertTrue(content.endsWith("\n'g++' \"$@\"\n"), content);
+        assertFalse(content.contains("CCACHE_DIR"), content);
+    }
+
+    private void writeBuildScript(long budget, String launcher) throws IOException {
+        writeBuildScript(budget, launcher, "");
+    }
+
+    private void writeBuildScript(long budget, String launcher, String libFlags) throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        compileMemoryBudget = " + budget + "\n"
+                + "        compilerMemoryEstimate = 2048\n"
+                + "        " + launcher + "\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1')" + libFlags + "\n"
+                + "    }\n"
+                + "}\n");
+    }
+
+    // Source name, slots held by its compiler script and slots held by every script, sorted by source name as the compilers run in any order
+    private List<String> launcherLog() throws IOException {
+        return Arrays.stream(project.read("launcher.log").split("\n")).sorted().collect(Collectors.toList());
+    }
+
+    private BuildResult build() {
+        return project.runner("assemble", "--parallel", "--max-workers=4")
+                .build();
+    }
+
+
+}
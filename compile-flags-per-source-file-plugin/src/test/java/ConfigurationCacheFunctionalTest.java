@@ -0,0 +1,240 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds a C++ application with the host tool chain, twice with the same sources, then once a source is added or removed.
+//   The sources are listed when the compile tasks run, the configuration cache entry is reused either way, including for sources generated by a task.
+class ConfigurationCacheFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSource(file('src/main/cpp/main.cpp')).add('-DMAIN=1')\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1')\n"
+                + "    }\n"
+                + "}\n");
+        project.write("src/main/cpp/main.cpp", "int main() { return MAIN - 1; }\n");
+        project.write("src/main/cpp/lib/lib.cpp", "int lib() { return LIB; }\n");
+        project.write("src/main/cpp/other.cpp", "int other() { return 0; }\n");
+    }
+
+    @Test
+    void reusesTheConfigurationCacheEntryWhenTheSourcesAreUnchanged() {
+        assertTrue(build().getOutput().contains("Configuration cache entry stored."));
+
+        final BuildResult result = build();
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        assertEquals(TaskOutcome.UP_TO_DATE, result.task(":compileDebugCpp").getOutcome());
+    }
+
+    // Each task resolves its own copy of the sources stored in the cache entry
+    @Test
+    void classifiesEachSourceOncePerBuild() throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSource(file('src/main/cpp/main.cpp')).add('-DMAIN=1')\n"
+                + "        forSource { println \"classifying ${it.name}\"; it.path.contains('lib') }.add('-DLIB=1')\n"
+                + "    }\n"
+                + "}\n");
+        build();
+
+        final BuildResult result = build("--rerun-tasks");
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        assertEquals(1, result.getOutput().split("classifying other.cpp", -1).length - 1);
+    }
+
+    @Test
+    void compilesAnAddedSourceInTheBucketItJoins() throws IOException {
+        build();
+        project.write("src/main/cpp/added.cpp", "int added() { return 0; }\n");
+        project.write("src/main/cpp/lib/addedLib.cpp", "int addedLib() { return LIB; }\n");
+
+        final BuildResult result = build();
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        assertEquals(TaskOutcome.SUCCESS, result.task(":compileDebugCpp").getOutcome());
+        assertTrue(objectFileNames("build/obj/main/debug").contains("added.o"));
+        assertTrue(objectFileNames("build/tmp").contains("addedLib.o"));
+    }
+
+    // Classified by the previous build and stored under the build directory, see SourcePartition
+    @Test
+    void classifiesOnlyTheAddedSourceWhenTheConfigurationCacheEntryIsReused() throws IOException {
+        build();
+        build();
+        assertTrue(Files.isDirectory(projectDirectory.resolve("build/source-assignments")));
+        project.write("src/main/cpp/added.cpp", "int added() { return 0; }\n");
+
+        final BuildResult result = build("--info");
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        final List<Long> evaluationCounts = Arrays.stream(result.getOutput().split("\n"))
+                .filter(it -> it.startsWith("Partitioned "))
+                .map(it -> Long.parseLong(it.substring(it.lastIndexOf('(') + 1, it.indexOf(" spec evaluations"))))
+                .collect(Collectors.toList());
+        assertFalse(evaluationCounts.isEmpty());
+        assertEquals(1L, evaluationCounts.stream().mapToLong(Long::longValue).sum(), evaluationCounts.toString());
+    }
+
+    @Test
+    void stopsLinkingARemovedSource() throws IOException {
+        build();
+        Files.delete(projectDirectory.resolve("src/main/cpp/other.cpp"));
+
+        final BuildResult result = build();
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        assertFalse(objectFileNames("build/obj/main/debug").contains("other.o"));
+    }
+
+    // E.g. the object of a source removed while the object directory of its bucket task was restored from elsewhere.
+    //   The bucket task compiles every source again, so the objects it didn't write are known to be stale.
+    @Test
+    void deletesTheObjectsTheCompileTaskDidNotProduce() throws IOException {
+        project.write("src/main/cpp/lib/other.cpp", "int otherLib() { return LIB; }\n");
+        build();
+        final Path objectFile;
+        try (Stream<Path> files = Files.walk(projectDirectory.resolve("build/tmp"))) {
+            objectFile = files.filter(it -> it.getFileName().toString().equals("lib.o")).findFirst().get();
+        }
+        final Path otherObjectFile;
+        try (Stream<Path> files = Files.walk(projectDirectory.resolve("build/tmp"))) {
+            otherObjectFile = files.filter(it -> it.getFileName().toString().equals("other.o")).findFirst().get();
+        }
+        final Path staleObjectFile = objectFile.getParent().resolveSibling("stale").resolve("lib.o");
+        Files.createDirectories(staleObjectFile.getParent());
+        Files.copy(objectFile, staleObjectFile);
+        Files.setLastModifiedTime(otherObjectFile, FileTime.fromMillis(0));
+
+        final BuildResult rebuild = build();
+        assertTrue(rebuild.getTasks().stream().anyMatch(it -> it.getPath().startsWith(":compileDebug") && it.getOutcome() == TaskOutcome.SUCCESS), rebuild.getOutput());
+        assertFalse(Files.exists(staleObjectFile));
+        // Compiled again although its source didn't change
+        assertTrue(Files.getLastModifiedTime(otherObjectFile).toMillis() > 0);
+
+        final BuildResult result = build();
+        assertTrue(result.getTasks().stream().filter(it -> it.getPath().startsWith(":compileDebug")).allMatch(it -> it.getOutcome() == TaskOutcome.UP_TO_DATE), result.getOutput());
+    }
+
+    @Test
+    void compilesTheSourcesGeneratedWhenTheConfigurationCacheEntryIsReused() throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "def generateSources = tasks.register('generateSources') {\n"
+                + "    def names = file('generated.txt')\n"
+                + "    def outputDirectory = layout.buildDirectory.dir('generated/cpp')\n"
+                + "    inputs.file(names)\n"
+                + "    outputs.dir(outputDirectory)\n"
+                + "    doLast {\n"
+                + "        def directory = outputDirectory.get().asFile\n"
+                + "        directory.deleteDir()\n"
+                + "        names.readLines().each { name ->\n"
+                + "            def source = new File(directory, \"lib/${name}.cpp\")\n"
+                + "            source.parentFile.mkdirs()\n"
+                + "            source.text = \"int ${name}() { return LIB; }\\n\"\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n"
+                + "application {\n"
+                + "    source.from('src/main/cpp', generateSources.map { it.outputs.files.singleFile })\n"
+                + "    compileFlags {\n"
+                + "        forSource(file('src/main/cpp/main.cpp')).add('-DMAIN=1')\n"
+                + "        forSourceMatching('src/main/cpp/lib/', 'build/generated/cpp/lib/').add('-DLIB=1')\n"
+                + "        forSource(file('build/generated/cpp/lib/addedGenerated.cpp')).add('-DADDED=1')\n"
+                + "    }\n"
+                + "}\n");
+        project.write("generated.txt", "generated\n");
+        assertTrue(build().getOutput().contains("Configuration cache entry stored."));
+        assertTrue(objectFileNames("build/tmp").contains("generated.o"));
+
+        project.write("generated.txt", "generated\naddedGenerated\n");
+        final BuildResult result = build();
+        assertTrue(result.getOutput().contains("Configuration cache entry reused."));
+        assertEquals(TaskOutcome.SUCCESS, result.task(":generateSources").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        assertTrue(objectFileNames("build/tmp").contains("addedGenerated.o"));
+    }
+
+    // Only the order of the compile tasks is part of the cache entry, the durations recorded in the build directory are not
+    @Test
+    void reusesTheConfigurationCacheEntryUntilTheRecordedDurationsReorderTheCompileTasks() throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        scheduleLongestFirst = true\n"
+                + "        forSource(file('src/main/cpp/main.cpp')).add('-DMAIN=1')\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1')\n"
+                + "    }\n"
+                + "}\n");
+        build();
+        final List<Path> durations;
+        try (Stream<Path> files = Files.list(projectDirectory.resolve("build/compile-durations"))) {
+            durations = files.sorted().collect(Collectors.toList());
+        }
+        assertTrue(durations.size() > 1, durations.toString());
+        writeDurations(durations, 1);
+        assertTrue(help().getOutput().contains("Configuration cache entry stored."));
+
+        writeDurations(durations, 8);
+        assertTrue(help().getOutput().contains("Configuration cache entry reused."));
+
+        Collections.reverse(durations);
+        writeDurations(durations, 1);
+        assertFalse(help().getOutput().contains("Configuration cache entry reused."));
+    }
+
+    private void writeDurations(List<Path> durations, long factor) throws IOException {
+        for (int i = 0; i < durations.size(); ++i) {
+            Files.write(durations.get(i), String.valueOf((1024L << i) * factor).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private BuildResult help() {
+        return runner("help", "--configuration-cache").build();
+    }
+
+    private BuildResult build(String... arguments) {
+        final List<String> allArguments = new ArrayList<>(Arrays.asList("assemble", "--configuration-cache"));
+        allArguments.addAll(Arrays.asList(arguments));
+        return runner(allArguments.toArray(new String[0])).build();
+    }
+
+    private GradleRunner runner(String... arguments) {
+        return project.runner(arguments);
+    }
+
+    // Gradle removes the object directory of a compile task left without sources
+    private Set<String> objectFileNames(String directory) throws IOException {
+        if (!Files.exists(projectDirectory.resolve(directory))) {
+            return Collections.emptySet();
+        }
+        try (Stream<Path> files = Files.walk(projectDirectory.resolve(directory))) {
+            return files.map(it -> it.getFileName().toString()).filter(it -> it.endsWith(".o")).collect(Collectors.toSet());
+        }
+    }
+
+}
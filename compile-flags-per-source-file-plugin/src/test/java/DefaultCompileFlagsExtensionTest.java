@@ -0,0 +1,151 @@
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Buckets are keyed (and named) by the fingerprint of their flags, see DefaultCompileFlagsExtension#fingerprintOf
+class DefaultCompileFlagsExtensionTest {
+    private Project project;
+    private File main;
+    private File util;
+    private File legacy;
+
+    @BeforeEach
+    void setUp() {
+        project = ProjectBuilder.builder().build();
+        main = project.file("src/main/cpp/main.cpp");
+        util = project.file("src/main/cpp/util.cpp");
+        legacy = project.file("src/main/cpp/legacy/legacy.cpp");
+    }
+
+    @Test
+    void sharesABucketBetweenSpecsWithTheSameFlags() {
+        final DefaultCompileFlagsExtension extension = newExtension();
+        extension.forSourceMatching("src/main/cpp/main.cpp").addAll("-O2", "-DNDEBUG");
+        extension.forSourceMatching("src/main/cpp/util.cpp").addAll("-O2", "-DNDEBUG");
+        extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        assertSame(bucketOf(extension, main), bucketOf(extension, util));
+        assertEquals(new HashSet<>(Arrays.asList(main, util)), bucketOf(extension, main).getCppSourceFiles().getFiles());
+        assertEquals(1, extension.getSourceCompileFlags().size());
+    }
+
+    @Test
+    void separatesSpecsWithDifferentFlagsOrOptions() {
+        final DefaultCompileFlagsExtension extension = newExtension();
+        extension.forSourceMatching("src/main/cpp/main.cpp").add("-O2");
+        extension.forSourceMatching("src/main/cpp/util.cpp").add("-O3");
+        extension.forSourceMatching("src/main/cpp/legacy/").add("-O2").optimizeWithProfile();
+        extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        assertEquals(3, new HashSet<>(Arrays.asList(bucketOf(extension, main), bucketOf(extension, util), bucketOf(extension, legacy))).size());
+        assertEquals(Collections.singletonList("-O3"), bucketOf(extension, util).getCompileFlags().get());
+    }
+
+    @Test
+    void keepsTheBucketNameWhenTheFlagsOfAnotherSpecChange() {
+        final DefaultCompileFlagsExtension before = newExtension();
+        before.forSourceMatching("src/main/cpp/main.cpp").add("-O2");
+        before.forSourceMatching("src/main/cpp/util.cpp").add("-O3");
+        before.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        final DefaultCompileFlagsExtension after = newExtension();
+        after.forSourceMatching("src/main/cpp/main.cpp").add("-O2");
+        after.forSourceMatching("src/main/cpp/util.cpp").add("-O0");
+        after.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        assertEquals(bucketOf(before, main).getName(), bucketOf(after, main).getName());
+        assertNotEquals(bucketOf(before, util).getName(), bucketOf(after, util).getName());
+    }
+
+    @Test
+    void keepsTheBucketNameWhenTheSpecsAreReordered() {
+        final DefaultCompileFlagsExtension before = newExtension();
+        before.forSourceMatching("src/main/cpp/main.cpp").add("-O2");
+        before.forSourceMatching("src/main/cpp/util.cpp").add("-O3");
+        before.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        final DefaultCompileFlagsExtension after = newExtension();
+        after.forSourceMatching("src/main/cpp/util.cpp").add("-O3");
+        after.forSourceMatching("src/main/cpp/main.cpp").add("-O2");
+        after.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        assertEquals(bucketOf(before, main).getName(), bucketOf(after, main).getName());
+        assertEquals(bucketOf(before, util).getName(), bucketOf(after, util).getName());
+    }
+
+    @Test
+    void coalescesSourcesWithTheSameEffectiveFlags() {
+        final DefaultCompileFlagsExtension extension = newExtension();
+        extension.getCoalesceIdenticalFlags().set(true);
+        extension.forSource(main).add("-DNDEBUG");
+        extension.forSource(util).add("-DNDEBUG");
+        extension.forSource(legacy).add("-DLEGACY");
+        extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        assertEquals(2, extension.getSourceCompileFlags().size());
+        for (DefaultCompileFlagsExtension.CompileFlagsBucket bucket : extension.getSourceCompileFlags()) {
+            final DefaultCompileFlagsExtension.FlagSetBucket flagSetBucket = (DefaultCompileFlagsExtension.FlagSetBucket) bucket;
+            if (flagSetBucket.getCompileFlags().get().contains("-DNDEBUG")) {
+                assertEquals(new HashSet<>(Arrays.asList(main, util)), flagSetBucket.getCppSourceFiles().getFiles());
+            } else {
+                assertEquals(new HashSet<>(Collections.singletonList(legacy)), flagSetBucket.getCppSourceFiles().getFiles());
+            }
+        }
+    }
+
+    // e.g. declared from a late afterEvaluate, the compile tasks of the file buckets are already registered
+    @Test
+    void failsToDeclareTheFlagsOfAFileOnceFinalized() {
+        final DefaultCompileFlagsExtension extension = newExtension();
+        extension.forSource(main).add("-DMAIN");
+        extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        final IllegalStateException failure = assertThrows(IllegalStateException.class, () -> extension.forSource(util));
+        assertTrue(failure.getMessage().contains(util.toString()));
+        assertThrows(IllegalStateException.class, () -> extension.forSource(main));
+    }
+
+    // The flags decide the buckets and their compile tasks, a late change would be silently ignored otherwise
+    @Test
+    void failsToChangeTheDeclaredFlagsOnceFinalized() {
+        final DefaultCompileFlagsExtension extension = newExtension();
+        final CompileFlagsExtension.CompileFlags fileFlags = extension.forSource(main).add("-DMAIN");
+        final CompileFlagsExtension.CompileFlags specFlags = extension.forSourceMatching("src/main/cpp/legacy/").add("-DLEGACY");
+        extension.finalizeExtension(ProjectFixtures.compileInformationOf(project));
+
+        assertThrows(IllegalStateException.class, () -> fileFlags.add("-DLATE"));
+        assertThrows(IllegalStateException.class, () -> specFlags.addAll("-DLATE"));
+        assertThrows(IllegalStateException.class, () -> specFlags.linkTimeOptimization());
+        assertThrows(IllegalStateException.class, () -> extension.forSourceMatching("src/main/cpp/util.cpp"));
+        for (DefaultCompileFlagsExtension.CompileFlagsBucket bucket : extension.getSourceCompileFlags()) {
+            assertFalse(bucket.getCompileFlags().get().contains("-DLATE"), bucket.getName());
+        }
+    }
+
+    private DefaultCompileFlagsExtension newExtension() {
+        return project.getObjects().newInstance(DefaultCompileFlagsExtension.class, project.files(main, util, legacy), SourceAssignments.of(project.getGradle().getSharedServices()));
+    }
+
+    private static DefaultCompileFlagsExtension.SourceSpecBucket bucketOf(DefaultCompileFlagsExtension extension, File file) {
+        for (DefaultCompileFlagsExtension.CompileFlagsBucket bucket : extension.getSourceCompileFlags()) {
+            final DefaultCompileFlagsExtension.SourceSpecBucket specBucket = (DefaultCompileFlagsExtension.SourceSpecBucket) bucket;
+            if (specBucket.getCppSourceFiles().getFiles().contains(file)) {
+                return specBucket;
+            }
+        }
+        throw new AssertionError("No bucket compiles " + file);
+    }
+}
@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FlagSetsTest {
+    private final FlagSets flagSets = new FlagSets();
+
+    @Test
+    void returnsTheSameSnapshotForEqualSets() {
+        final List<String> first = flagSets.intern(Arrays.asList("-O2", "-DNDEBUG"));
+        final List<String> second = flagSets.intern(Arrays.asList(new String("-O2"), new String("-DNDEBUG")));
+
+        assertSame(first, second);
+        assertEquals(Arrays.asList("-O2", "-DNDEBUG"), first);
+    }
+
+    @Test
+    void internsTheFlagsAcrossSets() {
+        final List<String> first = flagSets.intern(Arrays.asList(new String("-O2"), "-DNDEBUG"));
+        final List<String> second = flagSets.intern(Arrays.asList(new String("-O2"), "-g"));
+
+        assertSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    void keepsTheOrderOfTheFlags() {
+        final List<String> first = flagSets.intern(Arrays.asList("-O2", "-O0"));
+        final List<String> second = flagSets.intern(Arrays.asList("-O0", "-O2"));
+
+        assertNotEquals(first, second);
+        assertEquals(Arrays.asList("-O0", "-O2"), second);
+    }
+
+    @Test
+    void returnsUnmodifiableSnapshots() {
+        final List<String> snapshot = flagSets.intern(Collections.singletonList("-O2"));
+
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add("-g"));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.set(0, "-g"));
+    }
+
+    @Test
+    void returnsTheSameFlagSetForEqualFlagsAndOptions() {
+        final FlagSets.FlagSet first = flagSets.intern(Arrays.asList("-O2", "-DNDEBUG"), new File("common.h"), true, false, 0);
+        final FlagSets.FlagSet second = flagSets.intern(Arrays.asList(new String("-O2"), "-DNDEBUG"), new File("common.h"), true, false, 0);
+
+        assertSame(first, second);
+        assertSame(flagSets.intern(Arrays.asList("-O2", "-DNDEBUG")), first.getFlags());
+        assertNotEquals(first, flagSets.intern(Arrays.asList("-O2", "-DNDEBUG"), new File("common.h"), true, true, 0));
+    }
+}
@@ -0,0 +1,143 @@
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Batches are formed over the sorted relative paths and split wherever a path hash hits a boundary, see GenerateUnitySources
+class GenerateUnitySourcesTest {
+    private static final int BATCH_SIZE = 4;
+    private Project project;
+    private final List<File> sources = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = ProjectBuilder.builder().build();
+        for (int i = 0; i < 100; ++i) {
+            sources.add(write("src/main/cpp/file" + i + ".cpp", "int file" + i + "() { return " + i + "; }\n"));
+        }
+    }
+
+    @Test
+    void generatesTheSameBatchesForTheSameSources() throws IOException {
+        final Map<String, String> first = generate("first", sources);
+        final List<File> reversed = new ArrayList<>(sources);
+        Collections.reverse(reversed);
+
+        assertEquals(first, generate("first", sources));
+        assertEquals(first, generate("second", reversed));
+        assertTrue(first.size() >= sources.size() / BATCH_SIZE);
+    }
+
+    @Test
+    void keepsTheBatchesWhenASourceIsEdited() throws IOException {
+        final Map<String, String> before = generate("unity", sources);
+        write("src/main/cpp/file42.cpp", "int file42() { return -42; }\n");
+
+        assertEquals(before, generate("unity", sources));
+    }
+
+    // Only the batch the added path joins and the batches up to the next path hitting a boundary are reshaped
+    @Test
+    void keepsTheOtherBatchesWhenASourceIsAdded() throws IOException {
+        final Map<String, String> before = generate("unity", sources);
+        final File added = write("src/main/cpp/file50a.cpp", "int file50a() { return 0; }\n");
+        final List<File> withAdded = new ArrayList<>(sources);
+        withAdded.add(added);
+        final Map<String, String> after = generate("unity", withAdded);
+
+        final String addedPath = "../../../../src/main/cpp/file50a.cpp";
+        final String nextBoundary = before.values().stream()
+                .flatMap(it -> includePathsOf(it).stream())
+                .filter(it -> it.compareTo(addedPath) > 0 && Math.floorMod(it.hashCode(), BATCH_SIZE) == 0)
+                .min(String::compareTo).orElse(null);
+        final String precedingBatch = before.entrySet().stream()
+                .filter(it -> last(includePathsOf(it.getValue())).compareTo(addedPath) < 0)
+                .max((a, b) -> last(includePathsOf(a.getValue())).compareTo(last(includePathsOf(b.getValue()))))
+                .map(Map.Entry::getKey).orElse(null);
+        int unchanged = 0;
+        for (Map.Entry<String, String> batch : before.entrySet()) {
+            final List<String> paths = includePathsOf(batch.getValue());
+            if ((last(paths).compareTo(addedPath) < 0 && !batch.getKey().equals(precedingBatch)) || (nextBoundary != null && paths.get(0).compareTo(nextBoundary) >= 0)) {
+                assertEquals(batch.getValue(), after.get(batch.getKey()), "batch " + batch.getKey());
+                ++unchanged;
+            }
+        }
+        assertTrue(unchanged > before.size() / 2, unchanged + " of " + before.size() + " batches unchanged");
+        assertTrue(after.values().stream().anyMatch(it -> includePathsOf(it).contains(addedPath)));
+    }
+
+    // Batches are named after the digest of their first path, "Aa" and "BB" have the same String#hashCode
+    @Test
+    void namesTheBatchesOfFirstPathsWithTheSameStringHashApart() throws IOException {
+        final List<File> colliding = Arrays.asList(
+                write("src/main/cpp/Aa.cpp", ""),
+                write("src/main/cpp/Ab.cpp", ""),
+                write("src/main/cpp/Ac.cpp", ""),
+                write("src/main/cpp/BB.cpp", ""));
+
+        final Map<String, String> batches = generate("unity", colliding, 2);
+        final List<String> firstPaths = new ArrayList<>();
+        for (String batch : batches.values()) {
+            firstPaths.add(includePathsOf(batch).get(0));
+        }
+        assertTrue(firstPaths.contains("../../../../src/main/cpp/Aa.cpp"), firstPaths.toString());
+        assertTrue(firstPaths.contains("../../../../src/main/cpp/BB.cpp"), firstPaths.toString());
+        assertEquals(4, batches.values().stream().mapToInt(it -> includePathsOf(it).size()).sum());
+    }
+
+    private Map<String, String> generate(String name, List<File> sources) throws IOException {
+        return generate(name, sources, BATCH_SIZE);
+    }
+
+    // Runs the task action of a fresh task with the given outputs, as the next build would
+    private Map<String, String> generate(String name, List<File> sources, int batchSize) throws IOException {
+        final GenerateUnitySources task = project.getTasks().create("generate" + project.getTasks().size(), GenerateUnitySources.class);
+        task.getSources().from(sources);
+        task.getBatchSize().set(batchSize);
+        final File outputDirectory = project.file("build/generated/unity/" + name);
+        task.getOutputDirectory().set(outputDirectory);
+        Files.createDirectories(outputDirectory.toPath());
+        task.doGenerate();
+
+        final Map<String, String> result = new TreeMap<>();
+        for (File file : outputDirectory.listFiles()) {
+            result.put(file.getName(), new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static String last(List<String> paths) {
+        return paths.get(paths.size() - 1);
+    }
+
+    private static List<String> includePathsOf(String unitySource) {
+        final List<String> result = new ArrayList<>();
+        for (String line : unitySource.split("\n")) {
+            if (line.startsWith("#include \"")) {
+                result.add(line.substring("#include \"".length(), line.length() - 1));
+            }
+        }
+        return result;
+    }
+
+    private File write(String path, String content) throws IOException {
+        final File result = project.file(path);
+        Files.createDirectories(result.getParentFile().toPath());
+        Files.write(result.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds a C++ application whose sources are partly generated by a task, the generated sources only exist once the task graph is built.
+class GeneratedSourcesFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        project.write("src/main/cpp/main.cpp", "int generated();\nint generatedLib();\nint generatedFile();\nint main() { return generated() + generatedLib() + generatedFile() + MAIN - 1; }\n");
+        project.write("src/main/cpp/other.cpp", "int other() { return 0; }\n");
+    }
+
+    @Test
+    void compilesAndLinksGeneratedSources() throws IOException {
+        final BuildResult result = build("");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":generateSources").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        assertTrue(objectFileNames("build/obj/main/debug").contains("generated.o"));
+        assertTrue(objectFileNames("build/tmp").contains("generatedLib.o"));
+        assertTrue(objectFileNames("build/tmp").contains("generatedFile.o"));
+    }
+
+    @Test
+    void compilesAndLinksGeneratedSourcesInShards() {
+        final BuildResult result = build("defaultBucketHashShards = 2");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+    }
+
+    @Test
+    void compilesAndLinksGeneratedSourcesInUnityBatches() throws IOException {
+        final BuildResult result = build("unityBatchSize = 4");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":generateSources").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+
+        project.write("src/main/cpp/other.cpp", "int other() { return 1; }\n");
+        assertEquals(TaskOutcome.SUCCESS, build("unityBatchSize = 4").task(":generateMainUnitySources").getOutcome());
+    }
+
+    @Test
+    void compilesTheSourcesExcludedFromUnityOnTheirOwn() throws IOException {
+        final BuildResult result = build("unityBatchSize = 4; excludeFromUnity('src/main/cpp/other.cpp')");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        final StringBuilder unitySources = new StringBuilder();
+        try (Stream<Path> files = Files.list(projectDirectory.resolve("build/generated/unity/generateMainUnitySources"))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                unitySources.append(project.read(projectDirectory.relativize(file).toString()));
+            }
+        }
+        assertTrue(unitySources.toString().contains("generated.cpp"));
+        assertFalse(unitySources.toString().contains("other.cpp"));
+        assertTrue(objectFileNames("build/obj/main/debug").contains("other.o"));
+    }
+
+    private BuildResult build(String configuration) {
+        try {
+            project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                    + "def generateSources = tasks.register('generateSources') {\n"
+                    + "    def outputDirectory = layout.buildDirectory.dir('generated/cpp')\n"
+                    + "    outputs.dir(outputDirectory)\n"
+                    + "    doLast {\n"
+                    + "        def lib = outputDirectory.get().file('lib/generatedLib.cpp').asFile\n"
+                    + "        lib.parentFile.mkdirs()\n"
+                    + "        lib.text = 'int generatedLib() { return LIB - 1; }\\n'\n"
+                    + "        outputDirectory.get().file('generated.cpp').asFile.text = 'int generated() { return 0; }\\n'\n"
+                    + "        outputDirectory.get().file('generatedFile.cpp').asFile.text = 'int generatedFile() { return FILE - 1; }\\n'\n"
+                    + "    }\n"
+                    + "}\n"
+                    + "application {\n"
+                    + "    source.from('src/main/cpp', generateSources.map { it.outputs.files.singleFile })\n"
+                    + "    compileFlags {\n"
+                    + "        forSource(file('src/main/cpp/main.cpp')).add('-DMAIN=1')\n"
+                    + "        forSourceMatching('build/generated/cpp/lib/').add('-DLIB=1')\n"
+                    + "        forSource(file('build/generated/cpp/generatedFile.cpp')).add('-DFILE=1')\n"
+                    + "        " + configuration + "\n"
+                    + "    }\n"
+                    + "}\n");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return project.runner("assemble")
+                .build();
+    }
+
+    private Set<String> objectFileNames(String directory) throws IOException {
+        try (Stream<Path> files = Files.walk(projectDirectory.resolve(directory))) {
+            return files.map(it -> it.getFileName().toString()).filter(it -> it.endsWith(".o")).collect(Collectors.toSet());
+        }
+    }
+
+
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathPatternTrieTest {
+    @Test
+    void matchesLiteralPaths() {
+        assertTrue(matches("src/main.cpp", "src/main.cpp"));
+        assertFalse(matches("src/main.cpp", "src/util.cpp"));
+        assertFalse(matches("src/main.cpp", "lib/src/main.cpp"));
+        assertFalse(matches("src", "src/main.cpp"));
+    }
+
+    @Test
+    void matchesWildcardsWithinASegment() {
+        assertTrue(matches("src/*.cpp", "src/main.cpp"));
+        assertTrue(matches("src/*.cpp", "src/.cpp"));
+        assertFalse(matches("src/*.cpp", "src/main.c"));
+        assertFalse(matches("src/*.cpp", "src/lib/main.cpp"));
+        assertTrue(matches("src/ma?n.cpp", "src/main.cpp"));
+        assertFalse(matches("src/ma?n.cpp", "src/man.cpp"));
+        assertTrue(matches("src/*_test.c?p", "src/flags_test.cpp"));
+        assertFalse(matches("src/*_test.c?p", "src/flags_test.cxx"));
+    }
+
+    @Test
+    void matchesAnyDirectoriesIncludingNone() {
+        assertTrue(matches("src/**/main.cpp", "src/main.cpp"));
+        assertTrue(matches("src/**/main.cpp", "src/a/main.cpp"));
+        assertTrue(matches("src/**/main.cpp", "src/a/b/c/main.cpp"));
+        assertFalse(matches("src/**/main.cpp", "lib/a/main.cpp"));
+        assertTrue(matches("**/*.cpp", "main.cpp"));
+        assertTrue(matches("**/*.cpp", "a/b/main.cpp"));
+        assertTrue(matches("src/**/gen/**/*.cpp", "src/gen/main.cpp"));
+        assertTrue(matches("src/**/gen/**/*.cpp", "src/a/gen/b/c/main.cpp"));
+        assertFalse(matches("src/**/gen/**/*.cpp", "src/a/b/main.cpp"));
+    }
+
+    @Test
+    void matchesEverythingBelowADirectoryWithATrailingSeparator() {
+        assertTrue(matches("src/legacy/", "src/legacy/main.cpp"));
+        assertTrue(matches("src/legacy/", "src/legacy/a/b/main.cpp"));
+        assertFalse(matches("src/legacy/", "src/legacy.cpp"));
+        assertFalse(matches("src/legacy/", "src/modern/main.cpp"));
+    }
+
+    @Test
+    void normalizesTheCurrentDirectoryPrefixAndBackslashes() {
+        assertTrue(matches("./src/main.cpp", "src/main.cpp"));
+        assertTrue(matches("././src/*.cpp", "src/main.cpp"));
+        assertTrue(matches("src\\legacy\\*.cpp", "src/legacy/main.cpp"));
+    }
+
+    @Test
+    void matchesAllPatternsInASingleWalk() {
+        final PathPatternTrie trie = new PathPatternTrie();
+        trie.add("src/main.cpp", 0);
+        trie.add("src/*.cpp", 1);
+        trie.add("src/**", 2);
+        trie.add("lib/", 3);
+        trie.add("**/*.cpp", 4);
+
+        assertEquals(bitsOf(0, 1, 2, 4), trie.matchesOf("src/main.cpp"));
+        assertEquals(bitsOf(2, 4), trie.matchesOf("src/a/util.cpp"));
+        assertEquals(bitsOf(3, 4), trie.matchesOf("lib/a/util.cpp"));
+        assertEquals(bitsOf(2), trie.matchesOf("src/a/util.h"));
+        assertEquals(bitsOf(), trie.matchesOf("test/util.h"));
+    }
+
+    // The directory states are cached, a pattern added afterwards must still be matched
+    @Test
+    void matchesAPatternAddedAfterMatching() {
+        final PathPatternTrie trie = new PathPatternTrie();
+        trie.add("src/*.cpp", 0);
+        assertEquals(bitsOf(0), trie.matchesOf("src/main.cpp"));
+
+        trie.add("src/main.cpp", 1);
+        assertEquals(bitsOf(0, 1), trie.matchesOf("src/main.cpp"));
+    }
+
+    private static boolean matches(String pattern, String relativePath) {
+        final PathPatternTrie trie = new PathPatternTrie();
+        trie.add(pattern, 0);
+        return trie.matchesOf(relativePath).get(0);
+    }
+
+    private static BitSet bitsOf(int... indexes) {
+        final BitSet result = new BitSet();
+        for (int index : indexes) {
+            result.set(index);
+        }
+        return result;
+    }
+}
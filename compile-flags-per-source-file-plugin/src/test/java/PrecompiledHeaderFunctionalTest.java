@@ -0,0 +1,97 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds a C++ application whose sources below lib/ share a precompiled header, with the host tool chain (GCC or Clang).
+class PrecompiledHeaderFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1').precompiledHeader(file('src/main/headers/common.h'))\n"
+                + "    }\n"
+                + "}\n");
+        project.write("src/main/headers/common.h", "#pragma once\ninline int common() { return LIB - 1; }\n");
+        project.write("src/main/cpp/main.cpp", "int first();\nint second();\nint main() { return first() + second(); }\n");
+        project.write("src/main/cpp/lib/first.cpp", "int first() { return common(); }\n");
+        project.write("src/main/cpp/lib/second.cpp", "int second() { return common(); }\n");
+    }
+
+    @Test
+    void precompilesTheHeaderThroughAStubBeforeTheSourcesIncludingIt() throws IOException {
+        final BuildResult result = build();
+
+        final BuildTask stubTask = taskStartingWith(result, ":generateDebugPrecompiledHeaderStub");
+        final BuildTask precompileTask = taskStartingWith(result, ":precompileDebugHeader");
+        assertEquals(TaskOutcome.SUCCESS, stubTask.getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, precompileTask.getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        final List<String> executed = result.getTasks().stream().map(BuildTask::getPath).collect(Collectors.toList());
+        final BuildTask bucketTask = result.getTasks().stream().filter(it -> it.getPath().startsWith(":compileDebugSources")).findFirst().get();
+        assertTrue(executed.indexOf(stubTask.getPath()) < executed.indexOf(precompileTask.getPath()));
+        assertTrue(executed.indexOf(precompileTask.getPath()) < executed.indexOf(bucketTask.getPath()));
+
+        // The stub is the only source of the precompile task, it includes the header relative to itself
+        final String precompileTaskName = precompileTask.getPath().substring(1);
+        final String stubTaskName = stubTask.getPath().substring(1);
+        assertEquals("#include \"../../../src/main/headers/common.h\"\n", project.read("build/tmp/" + stubTaskName + "/common.h"));
+        assertTrue(project.read("build/tmp/" + precompileTaskName + "/options.txt").contains("c++-header"));
+
+        // The sources force-include the stub next to the precompiled header, relative to their object directory
+        final String bucketTaskName = bucketTask.getPath().substring(1);
+        final Path precompiledHeaderDirectory = projectDirectory.resolve("build/pch/" + precompileTaskName);
+        assertTrue(Files.exists(precompiledHeaderDirectory.resolve("common.h.gch")) || Files.exists(precompiledHeaderDirectory.resolve("common.h.pch")));
+        assertTrue(project.read("build/pch/" + precompileTaskName + "/common.h").contains("common.h\""));
+        final String bucketOptions = project.read("build/tmp/" + bucketTaskName + "/options.txt");
+        assertTrue(bucketOptions.contains("-Winvalid-pch"));
+        assertTrue(bucketOptions.contains("../../pch/" + precompileTaskName + "/common.h"), bucketOptions);
+    }
+
+    @Test
+    void compilesWithoutPrecompiledHeaderWhenASingleSourceWouldUseIt() throws IOException {
+        Files.delete(projectDirectory.resolve("src/main/cpp/lib/second.cpp"));
+        project.write("src/main/cpp/main.cpp", "int first();\nint main() { return first(); }\n");
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSource(file('src/main/cpp/lib/first.cpp')).add('-DLIB=1').add('-include').add(file('src/main/headers/common.h').absolutePath).precompiledHeader(file('src/main/headers/common.h'))\n"
+                + "    }\n"
+                + "}\n");
+
+        final BuildResult result = build();
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        assertTrue(result.getTasks().stream().noneMatch(it -> it.getPath().startsWith(":precompileDebugHeader")));
+    }
+
+    private BuildResult build() {
+        return project.runner("assemble")
+                .build();
+    }
+
+    private static BuildTask taskStartingWith(BuildResult result, String prefix) {
+        return result.getTasks().stream().filter(it -> it.getPath().startsWith(prefix)).findFirst()
+                .orElseThrow(() -> new AssertionError("No task starting with '" + prefix + "' was executed"));
+    }
+
+
+}
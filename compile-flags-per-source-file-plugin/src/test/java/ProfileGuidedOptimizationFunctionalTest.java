@@ -0,0 +1,114 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds a C++ application whose sources below hot/ are compiled with the profile of a training run and for link time optimization, with GCC.
+class ProfileGuidedOptimizationFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSourceMatching('src/main/cpp/hot/').add('-DHOT=1').optimizeWithProfile().linkTimeOptimization()\n"
+                + "        trainProfile { args '3' }\n"
+                + "    }\n"
+                + "}\n");
+        project.write("src/main/cpp/main.cpp", "int hot(int);\nint main(int argc, char** argv) { return hot(argc) == 0 ? 1 : 0; }\n");
+        project.write("src/main/cpp/hot/hot.cpp", "int hot(int n) { int result = HOT; for (int i = 0; i < n; ++i) { result += i; } return result; }\n");
+    }
+
+    @Test
+    void compilesTheMarkedSourcesWithTheProfileOfTheTrainingRun() throws IOException {
+        final BuildResult result = build();
+
+        final List<String> executed = result.getTasks().stream().map(BuildTask::getPath).collect(Collectors.toList());
+        final String instrumentedTask = taskStartingWith(result, ":compileDebugSources").filter(it -> it.endsWith("InstrumentedCpp")).findFirst().get();
+        final String bucketTask = taskStartingWith(result, ":compileDebugSources").filter(it -> !it.endsWith("InstrumentedCpp")).findFirst().get();
+        assertTrue(executed.indexOf(instrumentedTask) < executed.indexOf(":linkDebugInstrumented"));
+        assertTrue(executed.indexOf(":linkDebugInstrumented") < executed.indexOf(":trainDebugProfile"));
+        assertTrue(executed.indexOf(":trainDebugProfile") < executed.indexOf(":mergeDebugProfile"));
+        assertTrue(executed.indexOf(":mergeDebugProfile") < executed.indexOf(bucketTask));
+        assertTrue(executed.indexOf(bucketTask) < executed.indexOf(":linkDebug"));
+
+        // Only the marked sources are instrumented, the bucket is compiled with the merged profile and for link time optimization
+        final String instrumentedOptions = project.read("build/tmp/" + instrumentedTask.substring(1) + "/options.txt");
+        assertTrue(instrumentedOptions.contains("-fprofile-generate"), instrumentedOptions);
+        assertFalse(instrumentedOptions.contains("-flto"), instrumentedOptions);
+        final String bucketOptions = project.read("build/tmp/" + bucketTask.substring(1) + "/options.txt");
+        assertTrue(bucketOptions.contains("-fprofile-use="), bucketOptions);
+        assertTrue(bucketOptions.contains("-flto"), bucketOptions);
+        assertFalse(project.read("build/tmp/compileDebugCpp/options.txt").contains("-fprofile"));
+        assertTrue(project.read("build/tmp/linkDebug/options.txt").contains("-flto"));
+        assertTrue(project.read("build/tmp/linkDebugInstrumented/options.txt").contains("-fprofile-generate"));
+        try (Stream<Path> files = Files.walk(projectDirectory.resolve("build/pgo/debug/profile"))) {
+            assertTrue(files.anyMatch(it -> it.getFileName().toString().equals("hot.gcda")));
+        }
+    }
+
+    @Test
+    void recompilesTheMarkedSourcesOnlyWhenTheProfileChanges() throws IOException {
+        build();
+        // Same training run, hence same profile
+        project.write("src/main/cpp/main.cpp", "int hot(int);\nint main(int argc, char** argv) { return hot(argc) == 0 ? 1 : 0; }\nint unused() { return 0; }\n");
+
+        final BuildResult result = build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":compileDebugCpp").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebugInstrumented").getOutcome());
+        final String bucketTask = taskStartingWith(result, ":compileDebugSources").filter(it -> !it.endsWith("InstrumentedCpp")).findFirst().get();
+        assertEquals(TaskOutcome.UP_TO_DATE, result.task(bucketTask).getOutcome());
+
+        project.write("src/main/cpp/main.cpp", "int hot(int);\nint main(int argc, char** argv) { return hot(argc + 1) == 0 ? 1 : 0; }\n");
+        assertEquals(TaskOutcome.SUCCESS, build().task(bucketTask).getOutcome());
+    }
+
+    @Test
+    void usesTheGivenProfileInsteadOfTrainingOne() throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSourceMatching('src/main/cpp/hot/').add('-DHOT=1').optimizeWithProfile()\n"
+                + "        profile = file('profile')\n"
+                + "    }\n"
+                + "}\n");
+        Files.createDirectories(projectDirectory.resolve("profile"));
+
+        final BuildResult result = build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkDebug").getOutcome());
+        assertTrue(result.getTasks().stream().noneMatch(it -> it.getPath().contains("Profile") || it.getPath().contains("Instrumented")));
+        final String bucketTask = taskStartingWith(result, ":compileDebugSources").findFirst().get();
+        final String bucketOptions = project.read("build/tmp/" + bucketTask.substring(1) + "/options.txt");
+        assertTrue(bucketOptions.contains("-fprofile-use="), bucketOptions);
+        assertFalse(project.read("build/tmp/linkDebug/options.txt").contains("-flto"));
+    }
+
+    private BuildResult build() {
+        return project.runner("assemble")
+                .build();
+    }
+
+    private static Stream<String> taskStartingWith(BuildResult result, String prefix) {
+        return result.getTasks().stream().map(BuildTask::getPath).filter(it -> it.startsWith(prefix));
+    }
+
+
+}
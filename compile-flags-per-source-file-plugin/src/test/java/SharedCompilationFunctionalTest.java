@@ -0,0 +1,116 @@
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Builds the debug and release variants of a C++ application with the host tool chain, both compiled without optimization so they compile the same way.
+//   The instrumentation of instrumentCompilation is added to each compile task on its own, it doesn't tell the binaries apart.
+class SharedCompilationFunctionalTest {
+    @TempDir
+    Path projectDirectory;
+    private TestKitProject project;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        project = new TestKitProject(projectDirectory);
+        project.write("settings.gradle", "rootProject.name = 'app'\n");
+        project.write("src/main/cpp/main.cpp", "int lib();\nint main() { return lib() - 1; }\n");
+        project.write("src/main/cpp/lib/lib.cpp", "int lib() { return LIB; }\n");
+    }
+
+    @Test
+    void compilesTheBucketOnceForBinariesCompilingTheSameWay() throws IOException {
+        writeBuildScript("");
+
+        final BuildResult result = build();
+        assertTrue(result.getOutput().contains("Binary 'mainRelease' links the objects of binary 'mainDebug', both compile the same way."), result.getOutput());
+        final List<String> bucketTasks = bucketTasksOf(result);
+        assertEquals(1, bucketTasks.size(), bucketTasks.toString());
+        assertTrue(bucketTasks.get(0).startsWith(":compileDebug"), bucketTasks.toString());
+        assertEquals(TaskOutcome.SUCCESS, result.task(bucketTasks.get(0)).getOutcome());
+        // Each binary compiles its own main sources and links the bucket objects of the debug binary
+        assertEquals(TaskOutcome.SUCCESS, result.task(":compileDebugCpp").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":compileReleaseCpp").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":linkRelease").getOutcome());
+    }
+
+    @Test
+    void compilesTheBucketForEachBinaryWhenTheirFlagsDiffer() throws IOException {
+        assertCompilesTheBucketForEachBinary("-DRELEASE=1");
+    }
+
+    @Test
+    void compilesTheBucketForEachBinaryWhenTheirInstrumentationDiffers() throws IOException {
+        assertCompilesTheBucketForEachBinary("-finstrument-functions");
+    }
+
+    // The binaries are only compared when sharing is enabled
+    @Test
+    void doesNotRealizeTheMainCompileTasksWhileConfiguringWithoutSharing() throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1')\n"
+                + "    }\n"
+                + "}\n"
+                + "tasks.withType(CppCompile).configureEach { println \"Realized $name\" }\n");
+
+        final BuildResult result = project.runner("help").build();
+        assertFalse(result.getOutput().contains("Realized compileDebugCpp"), result.getOutput());
+        assertFalse(result.getOutput().contains("Realized compileReleaseCpp"), result.getOutput());
+    }
+
+    private void assertCompilesTheBucketForEachBinary(String releaseFlag) throws IOException {
+        writeBuildScript("application.binaries.configureEach { binary -> if (binary.name == 'mainRelease') binary.compileTask.get().compilerArgs.add('" + releaseFlag + "') }\n");
+
+        final BuildResult result = build();
+        assertFalse(result.getOutput().contains("links the objects of binary"), result.getOutput());
+        final List<String> bucketTasks = bucketTasksOf(result);
+        assertEquals(2, bucketTasks.size(), bucketTasks.toString());
+        assertTrue(bucketTasks.stream().anyMatch(it -> it.startsWith(":compileDebug")), bucketTasks.toString());
+        assertTrue(bucketTasks.stream().anyMatch(it -> it.startsWith(":compileRelease")), bucketTasks.toString());
+        // The bucket task of the release binary compiles like its main compile task
+        final String releaseBucketTask = bucketTasks.stream().filter(it -> it.startsWith(":compileRelease")).findFirst().get();
+        assertTrue(project.read("build/tmp/" + releaseBucketTask.substring(1) + "/options.txt").contains(releaseFlag));
+    }
+
+    private void writeBuildScript(String configuration) throws IOException {
+        project.write("build.gradle", "plugins { id 'cpp-application'; id 'com.example.compile-flags-per-source-file' }\n"
+                + "application {\n"
+                + "    compileFlags {\n"
+                + "        shareIdenticalCompilations = true\n"
+                + "        instrumentCompilation = true\n"
+                + "        forSourceMatching('src/main/cpp/lib/').add('-DLIB=1')\n"
+                + "    }\n"
+                + "}\n"
+                // Set by the core plugins when the binary is realized, which configures its compile task
+                + "application.binaries.configureEach { binary -> binary.compileTask.get().optimized = false }\n"
+                + configuration);
+    }
+
+    // The compile tasks of the binaries other than their main compile task, e.g. without the precompiled header tasks
+    private static List<String> bucketTasksOf(BuildResult result) {
+        return result.getTasks().stream()
+                .map(BuildTask::getPath)
+                .filter(it -> it.startsWith(":compile") && !it.equals(":compileDebugCpp") && !it.equals(":compileReleaseCpp"))
+                .collect(Collectors.toList());
+    }
+
+    private BuildResult build() {
+        return project.runner("linkDebug", "linkRelease", "--info")
+                .build();
+    }
+
+
+}
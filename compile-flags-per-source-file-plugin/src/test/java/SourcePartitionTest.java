@@ -0,0 +1,164 @@
+import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Provider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskOperationDescriptor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SourcePartitionTest {
+    private Project project;
+    private SourceSpecMatcher matcher;
+    private ConfigurableFileCollection sources;
+    private SourcePartition partition;
+    private File main;
+    private File util;
+    private File legacy;
+    private int bucketCount = 0;
+
+    @BeforeEach
+    void setUp() {
+        project = ProjectBuilder.builder().build();
+        main = project.file("src/main/cpp/main.cpp");
+        util = project.file("src/main/cpp/util.cpp");
+        legacy = project.file("src/main/cpp/legacy/legacy.cpp");
+        matcher = new SourceSpecMatcher(project.getProjectDir());
+        sources = project.getObjects().fileCollection().from(main, util, legacy);
+        partition = new SourcePartition(sources, matcher, SourceAssignments.of(project.getGradle().getSharedServices()), project.getObjects(), project.getProviders(), project.getLayout().getBuildDirectory().dir("source-assignments"));
+    }
+
+    @Test
+    void leavesUnassignedSourcesToTheDefaultBucket() {
+        assertEquals(Arrays.asList(main, util, legacy), listOf(partition.defaultSources().getFiles()));
+    }
+
+    @Test
+    void assignsEachSourceToASingleBucket() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket bucket = newBucket();
+        partition.assign(matcher.add(new SourcePatterns(project.getProjectDir(), Collections.singletonList("src/main/cpp/legacy/"))), bucket);
+
+        assertEquals(Collections.singletonList(legacy), listOf(partition.sourcesOf(bucket).getFiles()));
+        assertEquals(Arrays.asList(main, util), listOf(partition.defaultSources().getFiles()));
+    }
+
+    @Test
+    void prefersFilesAssignedExplicitlyOverSpecs() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket fileBucket = newBucket();
+        final DefaultCompileFlagsExtension.CompileFlagsBucket specBucket = newBucket();
+        partition.assign(matcher.add(it -> it.getName().endsWith(".cpp")), specBucket);
+        partition.assign(util, fileBucket);
+
+        assertEquals(Collections.singletonList(util), listOf(partition.sourcesOf(fileBucket).getFiles()));
+        assertEquals(Arrays.asList(main, legacy), listOf(partition.sourcesOf(specBucket).getFiles()));
+        assertEquals(Collections.emptyList(), listOf(partition.defaultSources().getFiles()));
+    }
+
+    @Test
+    void prefersTheFirstMatchingSpec() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket first = newBucket();
+        final DefaultCompileFlagsExtension.CompileFlagsBucket second = newBucket();
+        partition.assign(matcher.add(it -> it.getName().startsWith("main")), first);
+        partition.assign(matcher.add(it -> it.getName().endsWith(".cpp")), second);
+
+        assertEquals(Collections.singletonList(main), listOf(partition.sourcesOf(first).getFiles()));
+        assertEquals(Arrays.asList(util, legacy), listOf(partition.sourcesOf(second).getFiles()));
+    }
+
+    @Test
+    void partitionsAgainWhenAssignedAfterResolution() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket bucket = newBucket();
+        assertEquals(Arrays.asList(main, util, legacy), listOf(partition.defaultSources().getFiles()));
+
+        partition.assign(main, bucket);
+
+        assertEquals(Collections.singletonList(main), listOf(partition.sourcesOf(bucket).getFiles()));
+        assertEquals(Arrays.asList(util, legacy), listOf(partition.defaultSources().getFiles()));
+    }
+
+    // e.g. a source generated by a task, the views were already resolved when the task graph was built
+    @Test
+    void partitionsSourcesAddedAfterResolution() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket bucket = newBucket();
+        partition.assign(matcher.add(new SourcePatterns(project.getProjectDir(), Collections.singletonList("build/generated/"))), bucket);
+        assertEquals(Collections.emptyList(), listOf(partition.sourcesOf(bucket).getFiles()));
+
+        final File generated = project.file("build/generated/generated.cpp");
+        final File other = project.file("src/main/cpp/other.cpp");
+        sources.from(generated, other);
+
+        assertEquals(Collections.singletonList(generated), listOf(partition.sourcesOf(bucket).getFiles()));
+        assertEquals(Arrays.asList(main, util, legacy, other), listOf(partition.defaultSources().getFiles()));
+    }
+
+    @Test
+    void splitsTheDefaultBucketIntoShards() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket bucket = newBucket();
+        partition.assign(legacy, bucket);
+
+        final List<File> shards = new ArrayList<>();
+        shards.addAll(partition.defaultSources(0, 2).getFiles());
+        shards.addAll(partition.defaultSources(1, 2).getFiles());
+        assertEquals(new HashSet<>(Arrays.asList(main, util)), new HashSet<>(shards));
+        assertEquals(2, shards.size());
+    }
+
+    // Once the tasks run, all the views share a single resolution of the component's sources
+    @Test
+    void resolvesTheSourcesOnceForAllViews() {
+        final AtomicInteger resolutions = new AtomicInteger();
+        final ConfigurableFileCollection countedSources = project.getObjects().fileCollection().from((Callable<?>) () -> {
+            resolutions.incrementAndGet();
+            return Arrays.asList(main, util, legacy);
+        });
+        final Provider<SourceAssignments> assignments = SourceAssignments.of(project.getGradle().getSharedServices());
+        final SourcePartition partition = new SourcePartition(countedSources, matcher, assignments, project.getObjects(), project.getProviders(), project.getLayout().getBuildDirectory().dir("source-assignments"));
+        final DefaultCompileFlagsExtension.CompileFlagsBucket fileBucket = newBucket();
+        final DefaultCompileFlagsExtension.CompileFlagsBucket specBucket = newBucket();
+        partition.assign(util, fileBucket);
+        partition.assign(matcher.add(new SourcePatterns(project.getProjectDir(), Collections.singletonList("src/main/cpp/legacy/"))), specBucket);
+        assignments.get().onFinish(taskFinished(":generateSources"));
+
+        assertEquals(Collections.singletonList(util), listOf(partition.sourcesOf(fileBucket).getFiles()));
+        final int resolutionCount = resolutions.get();
+
+        assertEquals(Collections.singletonList(legacy), listOf(partition.sourcesOf(specBucket).getFiles()));
+        assertEquals(Collections.singletonList(main), listOf(partition.defaultSources().getFiles()));
+        assertEquals(1, partition.defaultSources(0, 2).getFiles().size() + partition.defaultSources(1, 2).getFiles().size());
+        assertEquals(resolutionCount, resolutions.get());
+    }
+
+    private static TaskFinishEvent taskFinished(String path) {
+        final TaskOperationDescriptor descriptor = proxyOf(TaskOperationDescriptor.class, method -> method.getName().equals("getTaskPath") ? path : null);
+        return proxyOf(TaskFinishEvent.class, method -> method.getName().equals("getDescriptor") ? descriptor : null);
+    }
+
+    private static <T> T proxyOf(Class<T> type, Function<Method, Object> answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> answer.apply(method)));
+    }
+
+    private DefaultCompileFlagsExtension.CompileFlagsBucket newBucket() {
+        final DefaultCompileFlagsExtension.CompileFlagsBucket result = project.getObjects().newInstance(DefaultCompileFlagsExtension.SourceSpecBucket.class);
+        result.getIdentifier().set("bucket" + ++bucketCount);
+        return result;
+    }
+
+    private static List<File> listOf(java.util.Set<File> files) {
+        return Arrays.asList(new LinkedHashSet<>(files).toArray(new File[0]));
+    }
+}
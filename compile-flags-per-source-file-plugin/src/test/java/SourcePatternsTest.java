@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourcePatternsTest {
+    @TempDir
+    File baseDirectory;
+
+    @Test
+    void matchesFilesRelativeToTheBaseDirectory() {
+        final SourcePatterns patterns = new SourcePatterns(baseDirectory, Arrays.asList("src/main/cpp/legacy/", "**/*_generated.cpp"));
+
+        assertTrue(patterns.isSatisfiedBy(new File(baseDirectory, "src/main/cpp/legacy/a/main.cpp")));
+        assertTrue(patterns.isSatisfiedBy(new File(baseDirectory, "src/main/cpp/flags_generated.cpp")));
+        assertFalse(patterns.isSatisfiedBy(new File(baseDirectory, "src/main/cpp/main.cpp")));
+        assertFalse(patterns.isSatisfiedBy(new File(baseDirectory.getParentFile(), "src/main/cpp/legacy/main.cpp")));
+    }
+
+    @Test
+    void keepsAnUnmodifiableCopyOfThePatterns() {
+        final List<String> source = new ArrayList<>(Collections.singletonList("src/*.cpp"));
+        final SourcePatterns patterns = new SourcePatterns(baseDirectory, source);
+        source.add("lib/");
+
+        assertEquals(Collections.singletonList("src/*.cpp"), patterns.getPatterns());
+        assertThrows(UnsupportedOperationException.class, () -> patterns.getPatterns().add("lib/"));
+    }
+
+    @Test
+    void usesForwardSlashesInRelativePaths() {
+        assertEquals("src/main/cpp/main.cpp", SourcePatterns.relativePathOf(baseDirectory, new File(new File(new File(new File(baseDirectory, "src"), "main"), "cpp"), "main.cpp")));
+    }
+}
@@ -0,0 +1,80 @@
+import org.gradle.api.specs.Spec;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SourceSpecMatcherTest {
+    private final File baseDirectory = new File("project").getAbsoluteFile();
+    private final SourceSpecMatcher matcher = new SourceSpecMatcher(baseDirectory);
+    private final List<File> files = Arrays.asList(new File(baseDirectory, "src/main.cpp"), new File(baseDirectory, "src/legacy/legacy.cpp"), new File(baseDirectory, "src/util.cpp"));
+    private final Map<String, Integer> evaluations = new HashMap<>();
+
+    @Test
+    void evaluatesEachSpecOncePerFile() {
+        matcher.add(countingSpec("main", it -> it.getName().startsWith("main")));
+        matcher.add(countingSpec("cpp", it -> it.getName().endsWith(".cpp")));
+
+        for (int i = 0; i < 3; ++i) {
+            files.forEach(matcher::matchesOf);
+        }
+
+        assertEquals(files.size(), (int) evaluations.get("main"));
+        assertEquals(files.size(), (int) evaluations.get("cpp"));
+        assertEquals(2 * files.size(), matcher.getEvaluationCount());
+        assertEquals(files.size(), matcher.getFileCount());
+        assertEquals(2, matcher.getSpecCount());
+    }
+
+    @Test
+    void evaluatesASpecAddedLaterOnlyForItself() {
+        matcher.add(countingSpec("main", it -> it.getName().startsWith("main")));
+        files.forEach(matcher::matchesOf);
+
+        matcher.add(countingSpec("cpp", it -> it.getName().endsWith(".cpp")));
+        files.forEach(matcher::matchesOf);
+
+        assertEquals(files.size(), (int) evaluations.get("main"));
+        assertEquals(files.size(), (int) evaluations.get("cpp"));
+        assertEquals(bitsOf(0, 1), matcher.matchesOf(files.get(0)));
+        assertEquals(bitsOf(1), matcher.matchesOf(files.get(2)));
+    }
+
+    // All the pattern specs are matched in a single walk of the trie per file
+    @Test
+    void matchesAllPatternSpecsInASingleEvaluationPerFile() {
+        matcher.add(new SourcePatterns(baseDirectory, Collections.singletonList("src/legacy/")));
+        matcher.add(countingSpec("main", it -> it.getName().startsWith("main")));
+        matcher.add(new SourcePatterns(baseDirectory, Collections.singletonList("**/*.cpp")));
+
+        for (int i = 0; i < 2; ++i) {
+            files.forEach(matcher::matchesOf);
+        }
+
+        assertEquals(bitsOf(0, 2), matcher.matchesOf(files.get(1)));
+        assertEquals(files.size(), (int) evaluations.get("main"));
+        assertEquals(2 * files.size(), matcher.getEvaluationCount());
+    }
+
+    private Spec<File> countingSpec(String name, Spec<File> spec) {
+        return file -> {
+            evaluations.merge(name, 1, Integer::sum);
+            return spec.isSatisfiedBy(file);
+        };
+    }
+
+    private static BitSet bitsOf(int... indices) {
+        final BitSet result = new BitSet();
+        for (int index : indices) {
+            result.set(index);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,24 @@
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.nativeplatform.platform.NativePlatform;
+import org.gradle.nativeplatform.toolchain.NativeToolChain;
+
+// Fixtures shared by the tests and the benchmarks (see src/benchmark/java), next to the plugin classes.
+final class ProjectFixtures {
+    private ProjectFixtures() {}
+
+    // No tool chain nor target platform, the flags of the fixtures don't depend on them
+    static CompileFlagsExtension.CompileInformation compileInformationOf(Project project) {
+        return new CompileFlagsExtension.CompileInformation() {
+            @Override
+            public Provider<NativeToolChain> getToolChain() {
+                return project.getProviders().provider(() -> null);
+            }
+
+            @Override
+            public Provider<NativePlatform> getTargetPlatform() {
+                return project.getProviders().provider(() -> null);
+            }
+        };
+    }
+}
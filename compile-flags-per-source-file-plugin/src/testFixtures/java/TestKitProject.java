@@ -0,0 +1,33 @@
+import org.gradle.testkit.runner.GradleRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// A project built with TestKit by the functional tests, applying the plugin under test (see java-gradle-plugin).
+final class TestKitProject {
+    private final Path directory;
+
+    TestKitProject(Path directory) {
+        this.directory = directory;
+    }
+
+    // Relative to the project directory, its parent directories are created
+    void write(String path, String content) throws IOException {
+        final Path file = directory.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String read(String path) throws IOException {
+        return new String(Files.readAllBytes(directory.resolve(path)), StandardCharsets.UTF_8);
+    }
+
+    GradleRunner runner(String... arguments) {
+        return GradleRunner.create()
+                .withProjectDir(directory.toFile())
+                .withPluginClasspath()
+                .withArguments(arguments);
+    }
+}